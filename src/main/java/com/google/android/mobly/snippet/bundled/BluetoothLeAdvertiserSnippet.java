@@ -21,22 +21,39 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.SparseArray;
 import com.google.android.mobly.snippet.Snippet;
+import com.google.android.mobly.snippet.bundled.utils.AdvertisingStamp;
 import com.google.android.mobly.snippet.bundled.utils.JsonDeserializer;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
+import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
 import com.google.android.mobly.snippet.bundled.utils.RpcEnum;
 import com.google.android.mobly.snippet.event.EventCache;
 import com.google.android.mobly.snippet.event.SnippetEvent;
 import com.google.android.mobly.snippet.rpc.AsyncRpc;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
 import com.google.android.mobly.snippet.rpc.RpcOptional;
 import com.google.android.mobly.snippet.util.Log;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -51,10 +68,18 @@ public class BluetoothLeAdvertiserSnippet implements Snippet {
         }
     }
 
+    // The time to wait for an ongoing rotation step when stopping a rotation.
+    private static final long ROTATION_STOP_TIMEOUT_SEC = 5;
+    // The time to wait for the advertisers of a rotation group to stop before starting the next.
+    private static final long ADVERTISER_STOP_TIMEOUT_MS = 1000;
+
     private final BluetoothLeAdvertiser mAdvertiser;
     private static final EventCache sEventCache = EventCache.getInstance();
 
     private final HashMap<String, AdvertiseCallback> mAdvertiseCallbacks = new HashMap<>();
+    private final HashMap<String, DefaultAdvertisingSetCallback> mAdvertisingSetCallbacks =
+            new HashMap<>();
+    private final HashMap<String, AdvertisingRotation> mAdvertisingRotations = new HashMap<>();
 
     public BluetoothLeAdvertiserSnippet() {
         mAdvertiser = BluetoothAdapter.getDefaultAdapter().getBluetoothLeAdvertiser();
@@ -160,6 +185,572 @@ public class BluetoothLeAdvertiserSnippet implements Snippet {
         mAdvertiser.stopAdvertising(callback);
     }
 
+    /**
+     * Start Bluetooth LE advertising with an {@link AdvertisingSet}.
+     *
+     * <p>Unlike {@link #bleStartAdvertising}, this supports extended advertising, with larger
+     * payloads and PHY selection, and periodic advertising.
+     *
+     * @param callbackId
+     * @param parameters A JSONObject representing a {@link AdvertisingSetParameters} object. E.g.
+     *     <pre>
+     *          {
+     *            "Legacy": (bool),
+     *            "Connectable": (bool),
+     *            "Scannable": (bool),
+     *            "Anonymous": (bool),
+     *            "IncludeTxPower": (bool),
+     *            "Interval": (int, in units of 0.625 ms),
+     *            "TxPowerLevel": (int, dBm),
+     *            "PrimaryPhy": "PHY_LE_1M",
+     *            "SecondaryPhy": "PHY_LE_2M"
+     *          }
+     *     </pre>
+     *
+     * @param advertiseData Same as in {@link #bleStartAdvertising}. "ManufacturerData" can also
+     *     be a list of manufacturer data objects.
+     * @param scanResponse Same as in {@link #bleStartAdvertising}.
+     * @param periodicParameters A JSONObject representing a {@link
+     *     PeriodicAdvertisingParameters} object, to also start periodic advertising. E.g.
+     *     <pre>
+     *          {
+     *            "IncludeTxPower": (bool),
+     *            "Interval": (int, in units of 1.25 ms)
+     *          }
+     *     </pre>
+     *
+     * @param periodicData Same as {@code advertiseData}, for periodic advertising.
+     * @throws BluetoothLeAdvertiserSnippetException
+     * @throws JSONException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.O)
+    @AsyncRpc(description = "Start BLE advertising with an advertising set.")
+    public void bleStartAdvertisingSet(
+            String callbackId,
+            JSONObject parameters,
+            JSONObject advertiseData,
+            @RpcOptional JSONObject scanResponse,
+            @RpcOptional JSONObject periodicParameters,
+            @RpcOptional JSONObject periodicData)
+            throws BluetoothLeAdvertiserSnippetException, JSONException {
+        if (!BluetoothAdapter.getDefaultAdapter().isEnabled()) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "Bluetooth is disabled, cannot start BLE advertising.");
+        }
+        DefaultAdvertisingSetCallback callback = new DefaultAdvertisingSetCallback(callbackId);
+        mAdvertiser.startAdvertisingSet(
+                JsonDeserializer.jsonToAdvertisingSetParameters(parameters),
+                JsonDeserializer.jsonToBleAdvertiseData(advertiseData),
+                scanResponse == null ? null : JsonDeserializer.jsonToBleAdvertiseData(scanResponse),
+                periodicParameters == null
+                        ? null
+                        : JsonDeserializer.jsonToPeriodicAdvertisingParameters(periodicParameters),
+                periodicData == null ? null : JsonDeserializer.jsonToBleAdvertiseData(periodicData),
+                callback);
+        mAdvertisingSetCallbacks.put(callbackId, callback);
+    }
+
+    /**
+     * Stop an advertising set.
+     *
+     * @param callbackId The callbackId corresponding to the {@link
+     *     BluetoothLeAdvertiserSnippet#bleStartAdvertisingSet} call that started the advertising.
+     * @throws BluetoothLeAdvertiserSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.O)
+    @Rpc(description = "Stop BLE advertising with an advertising set.")
+    public void bleStopAdvertisingSet(String callbackId)
+            throws BluetoothLeAdvertiserSnippetException {
+        AdvertisingSetCallback callback = mAdvertisingSetCallbacks.remove(callbackId);
+        if (callback == null) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "No advertising set found for ID " + callbackId);
+        }
+        mAdvertiser.stopAdvertisingSet(callback);
+    }
+
+    /**
+     * Update the advertised data of a running advertising set, without stopping it.
+     *
+     * <p>If {@code stampManufacturerId} is given, an {@link AdvertisingStamp} with an update
+     * counter and the current time is added to the data as manufacturer data with that ID. A
+     * scanner started with the same ID in {@link BluetoothLeScannerSnippet#bleStartScan} reports
+     * the stamp and the advertiser-to-scanner latency of each result.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "Status", String, as reported by onAdvertisingDataSet
+     *          "ConfirmLatencyMs", long, from the update request to onAdvertisingDataSet
+     *          "StampCounter", int, if stamped
+     *          "StampTimestampMs", long, if stamped
+     * </pre>
+     *
+     * @param callbackId The callbackId corresponding to the {@link
+     *     BluetoothLeAdvertiserSnippet#bleStartAdvertisingSet} call that started the advertising.
+     * @param advertiseData Same as in {@link #bleStartAdvertisingSet}.
+     * @param stampManufacturerId The manufacturer ID to stamp the data with, or null.
+     * @param timeoutSec The number of seconds to wait for the controller to confirm the update.
+     * @throws BluetoothLeAdvertiserSnippetException
+     * @throws JSONException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.O)
+    @Rpc(description = "Update the data of a running BLE advertising set.")
+    public Bundle bleUpdateAdvertisingSetData(
+            String callbackId,
+            JSONObject advertiseData,
+            @RpcOptional Integer stampManufacturerId,
+            @RpcDefault("5") Integer timeoutSec)
+            throws BluetoothLeAdvertiserSnippetException, JSONException, InterruptedException {
+        DefaultAdvertisingSetCallback callback = mAdvertisingSetCallbacks.get(callbackId);
+        if (callback == null) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "No advertising set found for ID " + callbackId);
+        }
+        AdvertiseData data = JsonDeserializer.jsonToBleAdvertiseData(advertiseData);
+        AdvertisingStamp stamp = null;
+        if (stampManufacturerId != null) {
+            stamp = new AdvertisingStamp(callback.mUpdateCount, System.currentTimeMillis());
+            data = addManufacturerData(data, stampManufacturerId, stamp.encode());
+        }
+        Bundle result = callback.updateData(data, timeoutSec);
+        if (stamp != null) {
+            result.putInt("StampCounter", stamp.getCounter());
+            result.putLong("StampTimestampMs", stamp.getTimestampMs());
+        }
+        return result;
+    }
+
+    /** Returns a copy of the advertise data, with manufacturer data added. */
+    private static AdvertiseData addManufacturerData(
+            AdvertiseData data, int manufacturerId, byte[] manufacturerData) {
+        AdvertiseData.Builder builder =
+                new AdvertiseData.Builder()
+                        .setIncludeDeviceName(data.getIncludeDeviceName())
+                        .setIncludeTxPowerLevel(data.getIncludeTxPowerLevel());
+        if (data.getServiceUuids() != null) {
+            for (ParcelUuid uuid : data.getServiceUuids()) {
+                builder.addServiceUuid(uuid);
+            }
+        }
+        for (Map.Entry<ParcelUuid, byte[]> serviceData : data.getServiceData().entrySet()) {
+            builder.addServiceData(serviceData.getKey(), serviceData.getValue());
+        }
+        SparseArray<byte[]> existingManufacturerData = data.getManufacturerSpecificData();
+        for (int i = 0; i < existingManufacturerData.size(); i++) {
+            if (existingManufacturerData.keyAt(i) != manufacturerId) {
+                builder.addManufacturerData(
+                        existingManufacturerData.keyAt(i), existingManufacturerData.valueAt(i));
+            }
+        }
+        builder.addManufacturerData(manufacturerId, manufacturerData);
+        return builder.build();
+    }
+
+    /**
+     * Rotate more logical advertisers than the controller can run at once.
+     *
+     * <p>Every {@code dwellTimeMs}, the advertisers that are on air are stopped and the next
+     * {@code slotCount} advertisers of the list, in round-robin order, are started as advertising
+     * sets. Use {@link #bleGetAdvertisingRotationStats} to get the actual time each advertiser was
+     * on air, which is shorter than its share of the dwell time by the time the controller takes
+     * to start it.
+     *
+     * <p>An "onAdvertiserStartFailure" event with the "Index" of the advertiser and the "Status"
+     * is posted each time an advertiser fails to start.
+     *
+     * @param callbackId
+     * @param advertisers A JSONArray of logical advertisers. E.g.
+     *     <pre>
+     *          [
+     *            {
+     *              "Parameters": (Same as in {@link #bleStartAdvertisingSet}),
+     *              "AdvertiseData": (Same as in {@link #bleStartAdvertisingSet}),
+     *              "ScanResponse": (Optional, same as in {@link #bleStartAdvertisingSet})
+     *            },
+     *          ]
+     *     </pre>
+     *
+     * @param slotCount The number of advertisers on air at the same time.
+     * @param dwellTimeMs The time each group of advertisers stays on air.
+     * @throws BluetoothLeAdvertiserSnippetException
+     * @throws JSONException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.O)
+    @AsyncRpc(description = "Start rotating logical BLE advertisers over the advertising slots.")
+    public void bleStartAdvertisingRotation(
+            String callbackId, JSONArray advertisers, Integer slotCount, Integer dwellTimeMs)
+            throws BluetoothLeAdvertiserSnippetException, JSONException {
+        if (!BluetoothAdapter.getDefaultAdapter().isEnabled()) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "Bluetooth is disabled, cannot start BLE advertising.");
+        }
+        if (advertisers.length() == 0 || slotCount <= 0 || dwellTimeMs <= 0) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "Advertisers, slot count and dwell time must not be empty or zero.");
+        }
+        if (mAdvertisingRotations.containsKey(callbackId)) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "Advertising rotation already running for ID " + callbackId);
+        }
+        ArrayList<LogicalAdvertiser> logicalAdvertisers = new ArrayList<>();
+        for (int i = 0; i < advertisers.length(); i++) {
+            JSONObject advertiser = advertisers.getJSONObject(i);
+            JSONObject scanResponse = advertiser.optJSONObject("ScanResponse");
+            logicalAdvertisers.add(
+                    new LogicalAdvertiser(
+                            callbackId,
+                            i,
+                            JsonDeserializer.jsonToAdvertisingSetParameters(
+                                    advertiser.getJSONObject("Parameters")),
+                            JsonDeserializer.jsonToBleAdvertiseData(
+                                    advertiser.getJSONObject("AdvertiseData")),
+                            scanResponse == null
+                                    ? null
+                                    : JsonDeserializer.jsonToBleAdvertiseData(scanResponse)));
+        }
+        AdvertisingRotation rotation =
+                new AdvertisingRotation(
+                        logicalAdvertisers, Math.min(slotCount, logicalAdvertisers.size()));
+        mAdvertisingRotations.put(callbackId, rotation);
+        rotation.start(dwellTimeMs);
+    }
+
+    /**
+     * Get the on-air statistics of an advertising rotation.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "ElapsedMs", long, since the rotation started
+     *          "Advertisers", list of Bundles, one per logical advertiser, with:
+     *              "Index", int, the index in the list of advertisers
+     *              "ActivationCount", int, the number of times it was started
+     *              "FailureCount", int, the number of times it failed to start
+     *              "OnAirMs", long, the time between its successful starts and its stops
+     *              "DutyCycle", double, OnAirMs divided by ElapsedMs
+     * </pre>
+     *
+     * @param callbackId The callbackId corresponding to the {@link
+     *     BluetoothLeAdvertiserSnippet#bleStartAdvertisingRotation} call.
+     * @throws BluetoothLeAdvertiserSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.O)
+    @Rpc(description = "Get the on-air statistics of a BLE advertising rotation.")
+    public Bundle bleGetAdvertisingRotationStats(String callbackId)
+            throws BluetoothLeAdvertiserSnippetException {
+        AdvertisingRotation rotation = mAdvertisingRotations.get(callbackId);
+        if (rotation == null) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "No advertising rotation found for ID " + callbackId);
+        }
+        return rotation.getStats();
+    }
+
+    /**
+     * Stop an advertising rotation.
+     *
+     * @param callbackId The callbackId corresponding to the {@link
+     *     BluetoothLeAdvertiserSnippet#bleStartAdvertisingRotation} call.
+     * @return The final statistics, same as {@link #bleGetAdvertisingRotationStats}.
+     * @throws BluetoothLeAdvertiserSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.O)
+    @Rpc(description = "Stop a BLE advertising rotation.")
+    public Bundle bleStopAdvertisingRotation(String callbackId)
+            throws BluetoothLeAdvertiserSnippetException, InterruptedException {
+        AdvertisingRotation rotation = mAdvertisingRotations.remove(callbackId);
+        if (rotation == null) {
+            throw new BluetoothLeAdvertiserSnippetException(
+                    "No advertising rotation found for ID " + callbackId);
+        }
+        rotation.stop();
+        return rotation.getStats();
+    }
+
+    /** Starts groups of logical advertisers in turn, each group for a dwell time. */
+    @TargetApi(Build.VERSION_CODES.O)
+    private class AdvertisingRotation {
+        private final List<LogicalAdvertiser> mAdvertisers;
+        private final int mSlotCount;
+        private final ScheduledExecutorService mScheduler =
+                Executors.newSingleThreadScheduledExecutor();
+        private final List<LogicalAdvertiser> mActiveAdvertisers = new ArrayList<>();
+        private long mStartNanos;
+        // The index of the first advertiser of the next group. Only used on the scheduler thread.
+        private int mNextIndex = 0;
+
+        AdvertisingRotation(List<LogicalAdvertiser> advertisers, int slotCount) {
+            mAdvertisers = advertisers;
+            mSlotCount = slotCount;
+        }
+
+        void start(int dwellTimeMs) {
+            mStartNanos = SystemClock.elapsedRealtimeNanos();
+            mScheduler.scheduleAtFixedRate(this::rotate, 0, dwellTimeMs, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() throws InterruptedException {
+            mScheduler.shutdown();
+            mScheduler.awaitTermination(ROTATION_STOP_TIMEOUT_SEC, TimeUnit.SECONDS);
+            for (LogicalAdvertiser advertiser : mActiveAdvertisers) {
+                advertiser.stop();
+            }
+            mActiveAdvertisers.clear();
+        }
+
+        private void rotate() {
+            if (mAdvertisers.size() == mSlotCount && !mActiveAdvertisers.isEmpty()) {
+                // Every advertiser has its own slot, nothing to rotate.
+                return;
+            }
+            List<CountDownLatch> stops = new ArrayList<>();
+            for (LogicalAdvertiser advertiser : mActiveAdvertisers) {
+                CountDownLatch stopped = advertiser.stop();
+                if (stopped != null) {
+                    stops.add(stopped);
+                }
+            }
+            mActiveAdvertisers.clear();
+            // Stopping is asynchronous, and starting the next group while the controller still
+            // holds the previous one fails with too many advertisers.
+            long deadlineNanos =
+                    SystemClock.elapsedRealtimeNanos()
+                            + TimeUnit.MILLISECONDS.toNanos(ADVERTISER_STOP_TIMEOUT_MS);
+            try {
+                for (CountDownLatch stopped : stops) {
+                    long remainingNanos = deadlineNanos - SystemClock.elapsedRealtimeNanos();
+                    if (!stopped.await(remainingNanos, TimeUnit.NANOSECONDS)) {
+                        Log.w("Timed out waiting for the advertisers to stop, starting anyway.");
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (int i = 0; i < mSlotCount; i++) {
+                LogicalAdvertiser advertiser = mAdvertisers.get(mNextIndex);
+                mNextIndex = (mNextIndex + 1) % mAdvertisers.size();
+                advertiser.start();
+                mActiveAdvertisers.add(advertiser);
+            }
+        }
+
+        Bundle getStats() {
+            long elapsedNanos = SystemClock.elapsedRealtimeNanos() - mStartNanos;
+            ArrayList<Bundle> advertiserStats = new ArrayList<>(mAdvertisers.size());
+            for (LogicalAdvertiser advertiser : mAdvertisers) {
+                advertiserStats.add(advertiser.getStats(elapsedNanos));
+            }
+            Bundle result = new Bundle();
+            result.putLong("ElapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            result.putParcelableArrayList("Advertisers", advertiserStats);
+            return result;
+        }
+    }
+
+    /** One advertiser of a rotation, started as a new advertising set each time it is on air. */
+    @TargetApi(Build.VERSION_CODES.O)
+    private class LogicalAdvertiser {
+        private final String mCallbackId;
+        private final int mIndex;
+        private final AdvertisingSetParameters mParameters;
+        private final AdvertiseData mData;
+        private final AdvertiseData mScanResponse;
+        private ActivationCallback mActivation;
+        private int mActivationCount = 0;
+        private int mFailureCount = 0;
+        private long mOnAirNanos = 0;
+
+        LogicalAdvertiser(
+                String callbackId,
+                int index,
+                AdvertisingSetParameters parameters,
+                AdvertiseData data,
+                AdvertiseData scanResponse) {
+            mCallbackId = callbackId;
+            mIndex = index;
+            mParameters = parameters;
+            mData = data;
+            mScanResponse = scanResponse;
+        }
+
+        synchronized void start() {
+            mActivation = new ActivationCallback();
+            mActivationCount++;
+            mAdvertiser.startAdvertisingSet(
+                    mParameters, mData, mScanResponse, null, null, mActivation);
+        }
+
+        /**
+         * Stops the advertiser if it is started.
+         *
+         * @return A latch counted down once the advertising set is stopped, or null if it was not
+         *     started.
+         */
+        synchronized CountDownLatch stop() {
+            if (mActivation == null) {
+                return null;
+            }
+            if (mActivation.mOnAirSinceNanos != 0) {
+                mOnAirNanos += SystemClock.elapsedRealtimeNanos() - mActivation.mOnAirSinceNanos;
+            }
+            CountDownLatch stopped = mActivation.mStopped;
+            mAdvertiser.stopAdvertisingSet(mActivation);
+            mActivation = null;
+            return stopped;
+        }
+
+        synchronized Bundle getStats(long elapsedNanos) {
+            long onAirNanos = mOnAirNanos;
+            if (mActivation != null && mActivation.mOnAirSinceNanos != 0) {
+                onAirNanos += SystemClock.elapsedRealtimeNanos() - mActivation.mOnAirSinceNanos;
+            }
+            Bundle result = new Bundle();
+            result.putInt("Index", mIndex);
+            result.putInt("ActivationCount", mActivationCount);
+            result.putInt("FailureCount", mFailureCount);
+            result.putLong("OnAirMs", TimeUnit.NANOSECONDS.toMillis(onAirNanos));
+            result.putDouble(
+                    "DutyCycle", elapsedNanos == 0 ? 0 : (double) onAirNanos / elapsedNanos);
+            return result;
+        }
+
+        /** Tracks when one activation of the advertiser actually went on air. */
+        private class ActivationCallback extends AdvertisingSetCallback {
+            private long mOnAirSinceNanos = 0;
+            // Counted down once the advertising set is stopped, or failed to start.
+            private final CountDownLatch mStopped = new CountDownLatch(1);
+
+            @Override
+            public void onAdvertisingSetStarted(
+                    AdvertisingSet advertisingSet, int txPower, int status) {
+                synchronized (LogicalAdvertiser.this) {
+                    if (status != ADVERTISE_SUCCESS) {
+                        mStopped.countDown();
+                    }
+                    if (mActivation != this) {
+                        // Stopped before it started.
+                        return;
+                    }
+                    if (status == ADVERTISE_SUCCESS) {
+                        mOnAirSinceNanos = SystemClock.elapsedRealtimeNanos();
+                    } else {
+                        mFailureCount++;
+                        Log.e(
+                                "Advertiser "
+                                        + mIndex
+                                        + " of rotation "
+                                        + mCallbackId
+                                        + " failed to start: "
+                                        + MbsEnums.ADVERTISING_SET_STATUS.getString(status));
+                        SnippetEvent event =
+                                new SnippetEvent(mCallbackId, "onAdvertiserStartFailure");
+                        event.getData().putInt("Index", mIndex);
+                        event.getData()
+                                .putString(
+                                        "Status",
+                                        MbsEnums.ADVERTISING_SET_STATUS.getString(status));
+                        sEventCache.postEvent(event);
+                    }
+                }
+            }
+
+            @Override
+            public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+                mStopped.countDown();
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static class DefaultAdvertisingSetCallback extends AdvertisingSetCallback {
+        private final String mCallbackId;
+        private volatile AdvertisingSet mAdvertisingSet;
+        // The number of data updates confirmed so far.
+        private volatile int mUpdateCount = 0;
+        // Signaled by onAdvertisingDataSet for the update in progress, if any. Written on the RPC
+        // thread and read on the binder thread.
+        private volatile CountDownLatch mUpdateLatch;
+        private volatile int mUpdateStatus;
+
+        public DefaultAdvertisingSetCallback(String callbackId) {
+            mCallbackId = callbackId;
+        }
+
+        /** Sets the advertised data and waits for the controller to confirm it. */
+        synchronized Bundle updateData(AdvertiseData data, int timeoutSec)
+                throws BluetoothLeAdvertiserSnippetException, InterruptedException {
+            if (mAdvertisingSet == null) {
+                throw new BluetoothLeAdvertiserSnippetException(
+                        "Advertising set " + mCallbackId + " is not started.");
+            }
+            CountDownLatch latch = new CountDownLatch(1);
+            mUpdateLatch = latch;
+            long startNanos = SystemClock.elapsedRealtimeNanos();
+            int status;
+            try {
+                mAdvertisingSet.setAdvertisingData(data);
+                if (!latch.await(timeoutSec, TimeUnit.SECONDS)) {
+                    throw new BluetoothLeAdvertiserSnippetException(
+                            "Timed out waiting for the update of advertising set " + mCallbackId);
+                }
+                status = mUpdateStatus;
+            } finally {
+                // So that a late callback, e.g. from a rotation of the data, cannot complete a
+                // later update.
+                mUpdateLatch = null;
+            }
+            Bundle result = new Bundle();
+            result.putString("Status", MbsEnums.ADVERTISING_SET_STATUS.getString(status));
+            result.putLong(
+                    "ConfirmLatencyMs",
+                    TimeUnit.NANOSECONDS.toMillis(
+                            SystemClock.elapsedRealtimeNanos() - startNanos));
+            if (status == ADVERTISE_SUCCESS) {
+                mUpdateCount++;
+            }
+            return result;
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
+            // Not synchronized, updateData holds the lock while waiting.
+            CountDownLatch latch = mUpdateLatch;
+            if (latch != null) {
+                mUpdateStatus = status;
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public void onAdvertisingSetStarted(
+                AdvertisingSet advertisingSet, int txPower, int status) {
+            Log.i("Bluetooth LE advertising set started with status: " + status);
+            if (status == ADVERTISE_SUCCESS) {
+                mAdvertisingSet = advertisingSet;
+            }
+            SnippetEvent event = new SnippetEvent(mCallbackId, "onAdvertisingSetStarted");
+            event.getData().putInt("TxPower", txPower);
+            event.getData()
+                    .putString("Status", MbsEnums.ADVERTISING_SET_STATUS.getString(status));
+            sEventCache.postEvent(event);
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+            mAdvertisingSet = null;
+            sEventCache.postEvent(new SnippetEvent(mCallbackId, "onAdvertisingSetStopped"));
+        }
+
+        @Override
+        public void onPeriodicAdvertisingEnabled(
+                AdvertisingSet advertisingSet, boolean enable, int status) {
+            SnippetEvent event = new SnippetEvent(mCallbackId, "onPeriodicAdvertisingEnabled");
+            event.getData().putBoolean("Enable", enable);
+            event.getData()
+                    .putString("Status", MbsEnums.ADVERTISING_SET_STATUS.getString(status));
+            sEventCache.postEvent(event);
+        }
+    }
+
     private static class DefaultAdvertiseCallback extends AdvertiseCallback {
         private final String mCallbackId;
         public static RpcEnum ADVERTISE_FAILURE_ERROR_CODE =
@@ -205,5 +796,17 @@ public class BluetoothLeAdvertiserSnippet implements Snippet {
             mAdvertiser.stopAdvertising(callback);
         }
         mAdvertiseCallbacks.clear();
+        for (DefaultAdvertisingSetCallback callback : mAdvertisingSetCallbacks.values()) {
+            mAdvertiser.stopAdvertisingSet(callback);
+        }
+        mAdvertisingSetCallbacks.clear();
+        for (AdvertisingRotation rotation : mAdvertisingRotations.values()) {
+            try {
+                rotation.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mAdvertisingRotations.clear();
     }
 }
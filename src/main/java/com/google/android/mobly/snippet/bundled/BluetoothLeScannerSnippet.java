@@ -25,20 +25,32 @@ import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.os.Build;
 import android.os.Bundle;
+import androidx.annotation.Nullable;
 import com.google.android.mobly.snippet.Snippet;
+import com.google.android.mobly.snippet.bundled.utils.AdvertisingStamp;
 import com.google.android.mobly.snippet.bundled.utils.JsonDeserializer;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
 import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
+import com.google.android.mobly.snippet.bundled.utils.RingBuffer;
+import com.google.android.mobly.snippet.bundled.utils.RssiStats;
+import com.google.android.mobly.snippet.bundled.utils.ScanResultMatcher;
 import com.google.android.mobly.snippet.event.EventCache;
 import com.google.android.mobly.snippet.event.SnippetEvent;
 import com.google.android.mobly.snippet.rpc.AsyncRpc;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
 import com.google.android.mobly.snippet.rpc.RpcOptional;
 import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -56,7 +68,10 @@ public class BluetoothLeScannerSnippet implements Snippet {
 
     private final BluetoothLeScanner mScanner;
     private final EventCache mEventCache = EventCache.getInstance();
-    private final HashMap<String, ScanCallback> mScanCallbacks = new HashMap<>();
+    // Capacity of the on-device buffer of a batched scan, as a multiple of its batch size.
+    private static final int BATCH_BUFFER_CAPACITY_FACTOR = 4;
+
+    private final HashMap<String, DefaultScanCallback> mScanCallbacks = new HashMap<>();
     private final JsonSerializer mJsonSerializer = new JsonSerializer();
     private long bleScanStartTime = 0;
 
@@ -86,6 +101,14 @@ public class BluetoothLeScannerSnippet implements Snippet {
      *          }
      *     </pre>
      *
+     * @param resultFilter A JSONObject representing a {@link ScanResultMatcher}, for criteria
+     *     that {@link ScanFilter} does not support, e.g. a minimum RSSI or a masked match on
+     *     manufacturer data. Results that do not match are dropped on the device before they are
+     *     serialized, and no event is posted for them.
+     * @param stampManufacturerId The manufacturer ID of an {@link AdvertisingStamp} stamped by
+     *     {@link BluetoothLeAdvertiserSnippet#bleUpdateAdvertisingSetData}. If given, results
+     *     carrying a stamp also have "StampCounter", "StampTimestampMs" and "StampLatencyMs", the
+     *     time from stamping to receiving the result.
      * @throws BluetoothLeScanSnippetException
      */
     @RpcMinSdk(Build.VERSION_CODES.LOLLIPOP_MR1)
@@ -93,25 +116,174 @@ public class BluetoothLeScannerSnippet implements Snippet {
     public void bleStartScan(
             String callbackId,
             @RpcOptional JSONArray scanFilters,
+            @RpcOptional JSONObject scanSettings,
+            @RpcOptional JSONObject resultFilter,
+            @RpcOptional Integer stampManufacturerId)
+            throws BluetoothLeScanSnippetException, JSONException {
+        if (!BluetoothAdapter.getDefaultAdapter().isEnabled()) {
+            throw new BluetoothLeScanSnippetException(
+                    "Bluetooth is disabled, cannot start BLE scan.");
+        }
+        ScanResultMatcher matcher =
+                resultFilter == null ? null : ScanResultMatcher.fromJson(resultFilter);
+        startScan(
+                new DefaultScanCallback(callbackId, matcher, stampManufacturerId),
+                scanFilters,
+                scanSettings);
+    }
+
+    /**
+     * Start a BLE scan that reports results in batches.
+     *
+     * <p>Instead of posting one "onScanResult" event per advertisement, results are kept in a
+     * bounded buffer on the device and posted together as one "onScanResultBatch" event once
+     * {@code maxBatchSize} results are buffered or every {@code maxBatchDelayMs}, whichever comes
+     * first. If results arrive faster than they can be posted, the oldest buffered results are
+     * dropped and counted in the "DroppedCount" field of the next batch.
+     *
+     * @param callbackId
+     * @param maxBatchSize The maximum number of results in one batch.
+     * @param maxBatchDelayMs The maximum time a result is buffered before it is posted.
+     * @param scanFilters Same as in {@link BluetoothLeScannerSnippet#bleStartScan}.
+     * @param scanSettings Same as in {@link BluetoothLeScannerSnippet#bleStartScan}.
+     * @throws BluetoothLeScanSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.LOLLIPOP_MR1)
+    @AsyncRpc(description = "Start BLE scan that reports results in batches.")
+    public void bleStartBatchedScan(
+            String callbackId,
+            Integer maxBatchSize,
+            Integer maxBatchDelayMs,
+            @RpcOptional JSONArray scanFilters,
             @RpcOptional JSONObject scanSettings)
             throws BluetoothLeScanSnippetException, JSONException {
+        if (maxBatchSize <= 0 || maxBatchDelayMs <= 0) {
+            throw new BluetoothLeScanSnippetException(
+                    "Batch size and delay must be positive, got "
+                            + maxBatchSize
+                            + " and "
+                            + maxBatchDelayMs
+                            + "ms.");
+        }
         if (!BluetoothAdapter.getDefaultAdapter().isEnabled()) {
             throw new BluetoothLeScanSnippetException(
                     "Bluetooth is disabled, cannot start BLE scan.");
         }
-        DefaultScanCallback callback = new DefaultScanCallback(callbackId);
-        if (scanFilters == null && scanSettings == null) {
-            mScanner.startScan(callback);
-        } else {
-            ArrayList<ScanFilter> filters = new ArrayList<>();
-            for (int i = 0; i < scanFilters.length(); i++) {
-                filters.add(JsonDeserializer.jsonToScanFilter(scanFilters.getJSONObject(i)));
+        startScan(
+                new BatchedScanCallback(callbackId, maxBatchSize, maxBatchDelayMs),
+                scanFilters,
+                scanSettings);
+    }
+
+    /**
+     * Start a BLE scan that keeps per-device statistics on the device.
+     *
+     * <p>No event is posted per advertisement. Instead, the first-seen time, last-seen time,
+     * packet count and RSSI statistics of each device address are aggregated on the device with a
+     * fixed amount of memory per device, and can be retrieved with {@link
+     * BluetoothLeScannerSnippet#bleGetScanStatistics} while the scan keeps running.
+     *
+     * @param callbackId
+     * @param scanFilters Same as in {@link BluetoothLeScannerSnippet#bleStartScan}.
+     * @param scanSettings Same as in {@link BluetoothLeScannerSnippet#bleStartScan}.
+     * @throws BluetoothLeScanSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.LOLLIPOP_MR1)
+    @AsyncRpc(description = "Start BLE scan that keeps per-device RSSI statistics.")
+    public void bleStartAggregatedScan(
+            String callbackId,
+            @RpcOptional JSONArray scanFilters,
+            @RpcOptional JSONObject scanSettings)
+            throws BluetoothLeScanSnippetException, JSONException {
+        if (!BluetoothAdapter.getDefaultAdapter().isEnabled()) {
+            throw new BluetoothLeScanSnippetException(
+                    "Bluetooth is disabled, cannot start BLE scan.");
+        }
+        startScan(new AggregatingScanCallback(callbackId), scanFilters, scanSettings);
+    }
+
+    /**
+     * Get a snapshot of the per-device statistics of an aggregated scan.
+     *
+     * <pre>Each returned {@link Bundle} has the following info:
+     *          "Address", String
+     *          "DeviceName", String
+     *          "FirstSeenTimeMs", long
+     *          "LastSeenTimeMs", long
+     *          "PacketCount", long
+     *          "RssiMin", int
+     *          "RssiMax", int
+     *          "RssiMean", double
+     *          "RssiP10", int
+     *          "RssiP50", int
+     *          "RssiP90", int
+     * </pre>
+     *
+     * @param callbackId The callbackId corresponding to the {@link
+     *     BluetoothLeScannerSnippet#bleStartAggregatedScan} call that started the scan.
+     * @param reset Whether to clear the statistics after taking the snapshot.
+     * @throws BluetoothLeScanSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.LOLLIPOP_MR1)
+    @Rpc(description = "Get the per-device statistics of an aggregated BLE scan.")
+    public ArrayList<Bundle> bleGetScanStatistics(
+            String callbackId, @RpcDefault("false") Boolean reset)
+            throws BluetoothLeScanSnippetException {
+        return getAggregatingScanCallback(callbackId).snapshot(reset);
+    }
+
+    /**
+     * Clear the per-device statistics of an aggregated scan without stopping the scan.
+     *
+     * @param callbackId The callbackId corresponding to the {@link
+     *     BluetoothLeScannerSnippet#bleStartAggregatedScan} call that started the scan.
+     * @throws BluetoothLeScanSnippetException
+     */
+    @RpcMinSdk(Build.VERSION_CODES.LOLLIPOP_MR1)
+    @Rpc(description = "Reset the per-device statistics of an aggregated BLE scan.")
+    public void bleResetScanStatistics(String callbackId) throws BluetoothLeScanSnippetException {
+        getAggregatingScanCallback(callbackId).reset();
+    }
+
+    private AggregatingScanCallback getAggregatingScanCallback(String callbackId)
+            throws BluetoothLeScanSnippetException {
+        DefaultScanCallback callback = mScanCallbacks.get(callbackId);
+        if (!(callback instanceof AggregatingScanCallback)) {
+            throw new BluetoothLeScanSnippetException(
+                    "No ongoing aggregated scan with ID: " + callbackId);
+        }
+        return (AggregatingScanCallback) callback;
+    }
+
+    private void startScan(
+            DefaultScanCallback callback,
+            @Nullable JSONArray scanFilters,
+            @Nullable JSONObject scanSettings)
+            throws JSONException {
+        try {
+            if (scanFilters == null && scanSettings == null) {
+                mScanner.startScan(callback);
+            } else {
+                ArrayList<ScanFilter> filters = new ArrayList<>();
+                if (scanFilters != null) {
+                    for (int i = 0; i < scanFilters.length(); i++) {
+                        filters.add(
+                                JsonDeserializer.jsonToScanFilter(scanFilters.getJSONObject(i)));
+                    }
+                }
+                ScanSettings settings =
+                        scanSettings == null
+                                ? new ScanSettings.Builder().build()
+                                : JsonDeserializer.jsonToScanSettings(scanSettings);
+                mScanner.startScan(filters, settings, callback);
             }
-            ScanSettings settings = JsonDeserializer.jsonToScanSettings(scanSettings);
-            mScanner.startScan(filters, settings, callback);
+        } catch (JSONException | RuntimeException e) {
+            // The callback is not registered, release what it holds, e.g. its flusher thread.
+            callback.close();
+            throw e;
         }
         bleScanStartTime = System.currentTimeMillis();
-        mScanCallbacks.put(callbackId, callback);
+        mScanCallbacks.put(callback.mCallbackId, callback);
     }
 
     /**
@@ -124,30 +296,49 @@ public class BluetoothLeScannerSnippet implements Snippet {
     @RpcMinSdk(Build.VERSION_CODES.LOLLIPOP_MR1)
     @Rpc(description = "Stop a BLE scan.")
     public void bleStopScan(String callbackId) throws BluetoothLeScanSnippetException {
-        ScanCallback callback = mScanCallbacks.remove(callbackId);
+        DefaultScanCallback callback = mScanCallbacks.remove(callbackId);
         if (callback == null) {
             throw new BluetoothLeScanSnippetException("No ongoing scan with ID: " + callbackId);
         }
         mScanner.stopScan(callback);
+        callback.close();
     }
 
     @Override
     public void shutdown() {
-        for (ScanCallback callback : mScanCallbacks.values()) {
+        for (DefaultScanCallback callback : mScanCallbacks.values()) {
             mScanner.stopScan(callback);
+            callback.close();
         }
         mScanCallbacks.clear();
     }
 
     private class DefaultScanCallback extends ScanCallback {
-        private final String mCallbackId;
+        protected final String mCallbackId;
+        @Nullable private final ScanResultMatcher mMatcher;
+        @Nullable private final Integer mStampManufacturerId;
 
         public DefaultScanCallback(String callbackId) {
+            this(callbackId, null, null);
+        }
+
+        public DefaultScanCallback(
+                String callbackId,
+                @Nullable ScanResultMatcher matcher,
+                @Nullable Integer stampManufacturerId) {
             mCallbackId = callbackId;
+            mMatcher = matcher;
+            mStampManufacturerId = stampManufacturerId;
         }
 
+        /** Releases the resources held by this callback after the scan is stopped. */
+        public void close() {}
+
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
+            if (mMatcher != null && !mMatcher.matches(result)) {
+                return;
+            }
             Log.i("Got Bluetooth LE scan result.");
             long bleScanOnResultTime = System.currentTimeMillis();
             SnippetEvent event = new SnippetEvent(mCallbackId, "onScanResult");
@@ -157,6 +348,20 @@ public class BluetoothLeScannerSnippet implements Snippet {
             event.getData().putBundle("result", mJsonSerializer.serializeBleScanResult(result));
             event.getData()
                     .putLong("StartToResultTimeDeltaMs", bleScanOnResultTime - bleScanStartTime);
+            if (mStampManufacturerId != null && result.getScanRecord() != null) {
+                AdvertisingStamp stamp =
+                        AdvertisingStamp.decode(
+                                result.getScanRecord()
+                                        .getManufacturerSpecificData(mStampManufacturerId));
+                if (stamp != null) {
+                    event.getData().putInt("StampCounter", stamp.getCounter());
+                    event.getData().putLong("StampTimestampMs", stamp.getTimestampMs());
+                    event.getData()
+                            .putLong(
+                                    "StampLatencyMs",
+                                    bleScanOnResultTime - stamp.getTimestampMs());
+                }
+            }
             mEventCache.postEvent(event);
         }
 
@@ -166,7 +371,13 @@ public class BluetoothLeScannerSnippet implements Snippet {
             SnippetEvent event = new SnippetEvent(mCallbackId, "onBatchScanResult");
             ArrayList<Bundle> resultList = new ArrayList<>(results.size());
             for (ScanResult result : results) {
-                resultList.add(mJsonSerializer.serializeBleScanResult(result));
+                if (mMatcher == null || mMatcher.matches(result)) {
+                    resultList.add(mJsonSerializer.serializeBleScanResult(result));
+                }
+            }
+            if (mMatcher != null && !results.isEmpty() && resultList.isEmpty()) {
+                // Every result was filtered out.
+                return;
             }
             event.getData().putParcelableArrayList("results", resultList);
             mEventCache.postEvent(event);
@@ -181,4 +392,137 @@ public class BluetoothLeScannerSnippet implements Snippet {
             mEventCache.postEvent(event);
         }
     }
+
+    /** Buffers scan results on the device and posts them in "onScanResultBatch" events. */
+    private class BatchedScanCallback extends DefaultScanCallback {
+        private final int mMaxBatchSize;
+        private final RingBuffer<ScanResult> mBuffer;
+        private final ScheduledExecutorService mFlusher =
+                Executors.newSingleThreadScheduledExecutor();
+        private final AtomicBoolean mIsFlushPending = new AtomicBoolean(false);
+
+        public BatchedScanCallback(String callbackId, int maxBatchSize, int maxBatchDelayMs) {
+            super(callbackId);
+            mMaxBatchSize = maxBatchSize;
+            mBuffer = new RingBuffer<>(maxBatchSize * BATCH_BUFFER_CAPACITY_FACTOR);
+            mFlusher.scheduleWithFixedDelay(
+                    this::flush, maxBatchDelayMs, maxBatchDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            buffer(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            // Results batched by the controller, when the scan settings set a report delay, go
+            // through the same buffer.
+            for (ScanResult result : results) {
+                buffer(result);
+            }
+        }
+
+        private void buffer(ScanResult result) {
+            // Only buffer here, serialization happens on the flusher thread.
+            if (mBuffer.add(result) >= mMaxBatchSize
+                    && mIsFlushPending.compareAndSet(false, true)) {
+                try {
+                    mFlusher.execute(
+                            () -> {
+                                mIsFlushPending.set(false);
+                                flush();
+                            });
+                } catch (RejectedExecutionException e) {
+                    // A late result after the scan was stopped.
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // Post what is left, then stop the periodic flush.
+            mFlusher.execute(this::flush);
+            mFlusher.shutdown();
+        }
+
+        private void flush() {
+            List<ScanResult> results = mBuffer.drain(mMaxBatchSize);
+            while (!results.isEmpty()) {
+                SnippetEvent event = new SnippetEvent(mCallbackId, "onScanResultBatch");
+                ArrayList<Bundle> resultList = new ArrayList<>(results.size());
+                for (ScanResult result : results) {
+                    resultList.add(mJsonSerializer.serializeBleScanResult(result));
+                }
+                event.getData().putParcelableArrayList("results", resultList);
+                event.getData().putLong("DroppedCount", mBuffer.takeDroppedCount());
+                event.getData()
+                        .putLong(
+                                "StartToBatchTimeDeltaMs",
+                                System.currentTimeMillis() - bleScanStartTime);
+                mEventCache.postEvent(event);
+                results = mBuffer.drain(mMaxBatchSize);
+            }
+        }
+    }
+
+    /** Aggregates scan results into per-device statistics instead of posting events. */
+    private class AggregatingScanCallback extends DefaultScanCallback {
+        private final HashMap<String, RssiStats> mStatsByAddress = new HashMap<>();
+        private final HashMap<String, String> mNameByAddress = new HashMap<>();
+
+        public AggregatingScanCallback(String callbackId) {
+            super(callbackId);
+        }
+
+        @Override
+        public synchronized void onScanResult(int callbackType, ScanResult result) {
+            String address = result.getDevice().getAddress();
+            RssiStats stats = mStatsByAddress.get(address);
+            if (stats == null) {
+                stats = new RssiStats();
+                mStatsByAddress.put(address, stats);
+            }
+            stats.add(result.getRssi(), System.currentTimeMillis());
+            if (result.getScanRecord() != null && result.getScanRecord().getDeviceName() != null) {
+                mNameByAddress.put(address, result.getScanRecord().getDeviceName());
+            }
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+            }
+        }
+
+        public synchronized ArrayList<Bundle> snapshot(boolean reset) {
+            ArrayList<Bundle> result = new ArrayList<>(mStatsByAddress.size());
+            for (Map.Entry<String, RssiStats> entry : mStatsByAddress.entrySet()) {
+                RssiStats stats = entry.getValue();
+                Bundle device = new Bundle();
+                device.putString("Address", entry.getKey());
+                device.putString("DeviceName", mNameByAddress.get(entry.getKey()));
+                device.putLong("FirstSeenTimeMs", stats.getFirstSeenTimeMs());
+                device.putLong("LastSeenTimeMs", stats.getLastSeenTimeMs());
+                device.putLong("PacketCount", stats.getCount());
+                device.putInt("RssiMin", stats.getMin());
+                device.putInt("RssiMax", stats.getMax());
+                device.putDouble("RssiMean", stats.getMean());
+                device.putInt("RssiP10", stats.getPercentile(10));
+                device.putInt("RssiP50", stats.getPercentile(50));
+                device.putInt("RssiP90", stats.getPercentile(90));
+                result.add(device);
+            }
+            if (reset) {
+                reset();
+            }
+            return result;
+        }
+
+        public synchronized void reset() {
+            mStatsByAddress.clear();
+            mNameByAddress.clear();
+        }
+    }
 }
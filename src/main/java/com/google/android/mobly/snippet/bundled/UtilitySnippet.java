@@ -1,6 +1,7 @@
 package com.google.android.mobly.snippet.bundled;
 
 import android.content.Context;
+import android.os.Bundle;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
@@ -38,6 +39,14 @@ public class UtilitySnippet implements Snippet {
         }
     }
 
+    @Rpc(description = "Returns the hit and miss counts of the reflection method cache.")
+    public Bundle utilityGetReflectionCacheStats() {
+        Bundle result = new Bundle();
+        result.putLong("Hits", Utils.getMethodHandleCacheHits());
+        result.putLong("Misses", Utils.getMethodHandleCacheMisses());
+        return result;
+    }
+
     @Override
     public void shutdown() {
         Utils.dropShellPermissionIdentity();
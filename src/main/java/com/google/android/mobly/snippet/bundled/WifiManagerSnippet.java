@@ -30,18 +30,28 @@ import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Bundle;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
 import com.google.android.mobly.snippet.bundled.utils.JsonDeserializer;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
+import com.google.android.mobly.snippet.bundled.utils.ScanResultDiffer;
 import com.google.android.mobly.snippet.bundled.utils.Utils;
+import com.google.android.mobly.snippet.event.EventCache;
+import com.google.android.mobly.snippet.event.SnippetEvent;
+import com.google.android.mobly.snippet.rpc.AsyncRpc;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
 import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -58,12 +68,17 @@ public class WifiManagerSnippet implements Snippet {
     }
 
     private static final int TIMEOUT_TOGGLE_STATE = 30;
+    private static final int TIMEOUT_SCAN_SEC = 2 * 60;
     private final WifiManager mWifiManager;
     private final ConnectivityManager mConnectivityManager;
     private final Context mContext;
     private final JsonSerializer mJsonSerializer = new JsonSerializer();
-    private volatile boolean mIsScanResultAvailable = false;
+    // Scan session receivers by callback ID.
+    private final Map<String, ScanSessionReceiver> mScanSessionReceivers =
+            new ConcurrentHashMap<>();
     private final AtomicBoolean mIsWifiConnected = new AtomicBoolean(false);
+    // Signaled by the network callback whenever the Wi-Fi connectivity changes.
+    private final EventWaiter mNetworkStateWaiter = new EventWaiter();
 
     public WifiManagerSnippet() throws Throwable {
         mContext = InstrumentationRegistry.getInstrumentation().getContext();
@@ -87,11 +102,13 @@ public class WifiManagerSnippet implements Snippet {
                 @Override
                 public void onAvailable(Network network) {
                     mIsWifiConnected.set(true);
+                    mNetworkStateWaiter.signal();
                 }
 
                 @Override
                 public void onLost(Network network) {
                     mIsWifiConnected.set(false);
+                    mNetworkStateWaiter.signal();
                 }
             });
     }
@@ -148,23 +165,33 @@ public class WifiManagerSnippet implements Snippet {
         if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLED) {
             return;
         }
-        // If Wi-Fi is trying to turn off, wait for that to complete before continuing.
-        if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLING) {
-            if (!Utils.waitUntil(
-                    () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED,
-                    TIMEOUT_TOGGLE_STATE)) {
-                Log.e(String.format("Wi-Fi failed to stabilize after %ss.", TIMEOUT_TOGGLE_STATE));
+        try (EventWaiter waiter =
+                EventWaiter.forBroadcast(mContext, WifiManager.WIFI_STATE_CHANGED_ACTION)) {
+            // If Wi-Fi is trying to turn off, wait for that to complete before continuing.
+            if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLING) {
+                if (waiter.waitUntil(
+                                () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED,
+                                TIMEOUT_TOGGLE_STATE)
+                        == EventWaiter.TIMED_OUT) {
+                    Log.e(
+                            String.format(
+                                    "Wi-Fi failed to stabilize after %ss.", TIMEOUT_TOGGLE_STATE));
+                }
             }
-        }
-        if (!mWifiManager.setWifiEnabled(true)) {
-            throw new WifiManagerSnippetException("Failed to initiate enabling Wi-Fi.");
-        }
-        if (!Utils.waitUntil(
-                () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLED,
-                TIMEOUT_TOGGLE_STATE)) {
-            throw new WifiManagerSnippetException(
-                    String.format(
-                            "Failed to enable Wi-Fi after %ss, timeout!", TIMEOUT_TOGGLE_STATE));
+            if (!mWifiManager.setWifiEnabled(true)) {
+                throw new WifiManagerSnippetException("Failed to initiate enabling Wi-Fi.");
+            }
+            long elapsedMs =
+                    waiter.waitUntil(
+                            () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLED,
+                            TIMEOUT_TOGGLE_STATE);
+            if (elapsedMs == EventWaiter.TIMED_OUT) {
+                throw new WifiManagerSnippetException(
+                        String.format(
+                                "Failed to enable Wi-Fi after %ss, timeout!",
+                                TIMEOUT_TOGGLE_STATE));
+            }
+            Log.d("Wi-Fi enabled in " + elapsedMs + " ms.");
         }
     }
 
@@ -173,23 +200,33 @@ public class WifiManagerSnippet implements Snippet {
         if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED) {
             return;
         }
-        // If Wi-Fi is trying to turn on, wait for that to complete before continuing.
-        if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLING) {
-            if (!Utils.waitUntil(
-                    () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLED,
-                    TIMEOUT_TOGGLE_STATE)) {
-                Log.e(String.format("Wi-Fi failed to stabilize after %ss.", TIMEOUT_TOGGLE_STATE));
+        try (EventWaiter waiter =
+                EventWaiter.forBroadcast(mContext, WifiManager.WIFI_STATE_CHANGED_ACTION)) {
+            // If Wi-Fi is trying to turn on, wait for that to complete before continuing.
+            if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLING) {
+                if (waiter.waitUntil(
+                                () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_ENABLED,
+                                TIMEOUT_TOGGLE_STATE)
+                        == EventWaiter.TIMED_OUT) {
+                    Log.e(
+                            String.format(
+                                    "Wi-Fi failed to stabilize after %ss.", TIMEOUT_TOGGLE_STATE));
+                }
             }
-        }
-        if (!mWifiManager.setWifiEnabled(false)) {
-            throw new WifiManagerSnippetException("Failed to initiate disabling Wi-Fi.");
-        }
-        if (!Utils.waitUntil(
-                () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED,
-                TIMEOUT_TOGGLE_STATE)) {
-            throw new WifiManagerSnippetException(
-                    String.format(
-                            "Failed to disable Wi-Fi after %ss, timeout!", TIMEOUT_TOGGLE_STATE));
+            if (!mWifiManager.setWifiEnabled(false)) {
+                throw new WifiManagerSnippetException("Failed to initiate disabling Wi-Fi.");
+            }
+            long elapsedMs =
+                    waiter.waitUntil(
+                            () -> mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED,
+                            TIMEOUT_TOGGLE_STATE);
+            if (elapsedMs == EventWaiter.TIMED_OUT) {
+                throw new WifiManagerSnippetException(
+                        String.format(
+                                "Failed to disable Wi-Fi after %ss, timeout!",
+                                TIMEOUT_TOGGLE_STATE));
+            }
+            Log.d("Wi-Fi disabled in " + elapsedMs + " ms.");
         }
     }
 
@@ -222,18 +259,79 @@ public class WifiManagerSnippet implements Snippet {
                             + "serialized WifiScanResult objects.")
     public JSONArray wifiScanAndGetResults()
             throws InterruptedException, JSONException, WifiManagerSnippetException {
+        AtomicBoolean isScanResultAvailable = new AtomicBoolean(false);
+        EventWaiter waiter = new EventWaiter();
+        BroadcastReceiver receiver =
+                new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context c, Intent intent) {
+                        isScanResultAvailable.set(true);
+                        waiter.signal();
+                    }
+                };
         mContext.registerReceiver(
-                new WifiScanReceiver(),
-                new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
-        wifiStartScan();
-        mIsScanResultAvailable = false;
-        if (!Utils.waitUntil(() -> mIsScanResultAvailable, 2 * 60)) {
-            throw new WifiManagerSnippetException(
-                    "Failed to get scan results after 2min, timeout!");
+                receiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        try {
+            wifiStartScan();
+            if (waiter.waitUntil(isScanResultAvailable::get, TIMEOUT_SCAN_SEC)
+                    == EventWaiter.TIMED_OUT) {
+                throw new WifiManagerSnippetException(
+                        "Failed to get scan results after 2min, timeout!");
+            }
+        } finally {
+            mContext.unregisterReceiver(receiver);
         }
         return wifiGetCachedScanResults();
     }
 
+    /**
+     * Starts a scan session, which posts an "onScanResultsDiff" event each time scan results are
+     * available, until {@link #wifiStopScanSession} is called.
+     *
+     * <p>Instead of the full scan results, each event only carries the results that changed since
+     * the previous event, keyed by BSSID:
+     *
+     * <pre>
+     *   "Added", list of Bundle, the serialized results seen for the first time
+     *   "Removed", list of String, the BSSIDs no longer seen
+     *   "Changed", list of Bundle, the serialized results whose RSSI moved by the threshold
+     *   "ResultCount", int, the number of results of the scan
+     * </pre>
+     *
+     * <p>The first event carries all the current results as added. Scans whose results did not
+     * change post no event. The session starts a scan, and then relies on the scans triggered by
+     * the system or by {@link #wifiStartScan}.
+     *
+     * @param callbackId
+     * @param rssiThresholdDb The minimum RSSI change, in dB, for a result to be reported as
+     *     changed.
+     */
+    @AsyncRpc(description = "Start posting the difference of the Wi-Fi scan results at each scan.")
+    public void wifiStartScanSession(String callbackId, @RpcDefault("5") Integer rssiThresholdDb) {
+        ScanSessionReceiver receiver = new ScanSessionReceiver(callbackId, rssiThresholdDb);
+        ScanSessionReceiver previous = mScanSessionReceivers.put(callbackId, receiver);
+        if (previous != null) {
+            mContext.unregisterReceiver(previous);
+        }
+        mContext.registerReceiver(
+                receiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        // Post the current results right away instead of waiting for the next scan.
+        receiver.postDiff();
+        // Scans are throttled, so a failed scan is expected and the session then relies on the
+        // scans of the system.
+        if (!mWifiManager.startScan()) {
+            Log.w("Failed to initiate Wi-Fi scan, waiting for system scans.");
+        }
+    }
+
+    @Rpc(description = "Stop posting the difference of the Wi-Fi scan results.")
+    public void wifiStopScanSession(String callbackId) {
+        ScanSessionReceiver receiver = mScanSessionReceivers.remove(callbackId);
+        if (receiver != null) {
+            mContext.unregisterReceiver(receiver);
+        }
+    }
+
   @Rpc(
       description =
           "Connects to a Wi-Fi network. This covers the common network types like open and "
@@ -320,7 +418,10 @@ public class WifiManagerSnippet implements Snippet {
                     "Failed to reconnect to Wi-Fi network of ID: " + networkId);
         }
 
-        if (!Utils.waitUntil(() -> isWifiConnected() && isWifiConnectedToSsid(SSID), 90)) {
+        long elapsedMs =
+                mNetworkStateWaiter.waitUntil(
+                        () -> isWifiConnected() && isWifiConnectedToSsid(SSID), 90);
+        if (elapsedMs == EventWaiter.TIMED_OUT) {
             throw new WifiManagerSnippetException(
                 String.format(
                     "Failed to connect to '%s', timeout! Current connection: '%s'",
@@ -330,7 +431,10 @@ public class WifiManagerSnippet implements Snippet {
                 "Connected to network '"
                         + mWifiManager.getConnectionInfo().getSSID()
                         + "' with ID "
-                        + mWifiManager.getConnectionInfo().getNetworkId());
+                        + mWifiManager.getConnectionInfo().getNetworkId()
+                        + " in "
+                        + elapsedMs
+                        + " ms.");
     }
 
     @Rpc(
@@ -377,6 +481,38 @@ public class WifiManagerSnippet implements Snippet {
         return mJsonSerializer.toJson(mWifiManager.getDhcpInfo());
     }
 
+    /**
+     * Benchmarks the JSON serialization of the Wi-Fi objects returned by this snippet.
+     *
+     * <p>For each of ScanResult, WifiInfo, DhcpInfo and WifiConfiguration that is currently
+     * available, the returned Bundle contains an entry with the time and allocation per object of
+     * the dedicated serializer and of the reflection based Gson serialization it replaces.
+     *
+     * @param iterations The number of times each object is serialized with each serializer.
+     */
+    @Rpc(description = "Benchmark the JSON serialization of Wi-Fi objects.")
+    public Bundle wifiBenchmarkSerialization(Integer iterations) throws JSONException {
+        Bundle result = new Bundle();
+        List<ScanResult> scanResults = mWifiManager.getScanResults();
+        if (!scanResults.isEmpty()) {
+            result.putBundle(
+                    "ScanResult", mJsonSerializer.benchmarkToJson(scanResults.get(0), iterations));
+        }
+        result.putBundle(
+                "WifiInfo",
+                mJsonSerializer.benchmarkToJson(mWifiManager.getConnectionInfo(), iterations));
+        result.putBundle(
+                "DhcpInfo",
+                mJsonSerializer.benchmarkToJson(mWifiManager.getDhcpInfo(), iterations));
+        List<WifiConfiguration> configs = mWifiManager.getConfiguredNetworks();
+        if (configs != null && !configs.isEmpty()) {
+            result.putBundle(
+                    "WifiConfiguration",
+                    mJsonSerializer.benchmarkToJson(configs.get(0), iterations));
+        }
+        return result;
+    }
+
     @Rpc(description = "Check whether Wi-Fi Soft AP (hotspot) is enabled.")
     public boolean wifiIsApEnabled() throws Throwable {
         return (boolean) Utils.invokeByReflection(mWifiManager, "isWifiApEnabled");
@@ -452,17 +588,54 @@ public class WifiManagerSnippet implements Snippet {
     }
 
     @Override
-    public void shutdown() {}
+    public void shutdown() {
+        for (ScanSessionReceiver receiver : mScanSessionReceivers.values()) {
+            mContext.unregisterReceiver(receiver);
+        }
+        mScanSessionReceivers.clear();
+    }
 
+    /** Posts the difference of the scan results each time a scan completes. */
+    private class ScanSessionReceiver extends BroadcastReceiver {
+        private final String mCallbackId;
+        // Guarded by this.
+        private final ScanResultDiffer<ScanResult> mDiffer;
 
-    private class WifiScanReceiver extends BroadcastReceiver {
+        ScanSessionReceiver(String callbackId, int rssiThresholdDb) {
+            mCallbackId = callbackId;
+            mDiffer = new ScanResultDiffer<>(rssiThresholdDb, result -> result.level);
+        }
 
         @Override
         public void onReceive(Context c, Intent intent) {
-            String action = intent.getAction();
-            if (action.equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)) {
-                mIsScanResultAvailable = true;
+            postDiff();
+        }
+
+        synchronized void postDiff() {
+            List<ScanResult> scanResults = mWifiManager.getScanResults();
+            Map<String, ScanResult> results = new HashMap<>();
+            for (ScanResult result : scanResults) {
+                results.put(result.BSSID, result);
+            }
+            ScanResultDiffer.Diff<ScanResult> diff = mDiffer.update(results);
+            if (diff.isEmpty()) {
+                return;
+            }
+            SnippetEvent event = new SnippetEvent(mCallbackId, "onScanResultsDiff");
+            Bundle data = event.getData();
+            data.putParcelableArrayList("Added", toBundles(diff.getAdded()));
+            data.putStringArrayList("Removed", new ArrayList<>(diff.getRemoved()));
+            data.putParcelableArrayList("Changed", toBundles(diff.getChanged()));
+            data.putInt("ResultCount", results.size());
+            EventCache.getInstance().postEvent(event);
+        }
+
+        private ArrayList<Bundle> toBundles(List<ScanResult> results) {
+            ArrayList<Bundle> bundles = new ArrayList<>(results.size());
+            for (ScanResult result : results) {
+                bundles.add(mJsonSerializer.serializeWifiScanResultToBundle(result));
             }
+            return bundles;
         }
     }
 }
@@ -18,6 +18,7 @@ package com.google.android.mobly.snippet.bundled.bluetooth;
 
 import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothStatusCodes;
 import android.content.BroadcastReceiver;
@@ -27,25 +28,40 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import androidx.annotation.Nullable;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.uiautomator.By;
 import androidx.test.uiautomator.BySelector;
 import androidx.test.uiautomator.UiDevice;
 import androidx.test.uiautomator.Until;
 import com.google.android.mobly.snippet.Snippet;
+import com.google.android.mobly.snippet.bundled.bluetooth.profiles.ProfileConnectionTracker;
+import com.google.android.mobly.snippet.bundled.utils.DiscoveryCache;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
+import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
+import com.google.android.mobly.snippet.bundled.utils.StateTimeline;
 import com.google.android.mobly.snippet.bundled.utils.Utils;
+import com.google.android.mobly.snippet.event.EventCache;
+import com.google.android.mobly.snippet.event.SnippetEvent;
+import com.google.android.mobly.snippet.rpc.AsyncRpc;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
+import com.google.android.mobly.snippet.rpc.RpcOptional;
 import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import org.json.JSONArray;
 import org.json.JSONException;
 
 /** Snippet class exposing Android APIs in BluetoothAdapter. */
@@ -64,20 +80,33 @@ public class BluetoothAdapterSnippet implements Snippet {
         }
     }
 
-    // Timeout to measure consistent BT state.
-    private static final int BT_MATCHING_STATE_INTERVAL_SEC = 5;
+    // Maximum number of adapter state transitions kept in the timeline.
+    private static final int STATE_TIMELINE_CAPACITY = 100;
     // Default timeout in seconds.
     private static final int TIMEOUT_TOGGLE_STATE_SEC = 30;
     // Default timeout in milliseconds for UI update.
     private static final long TIMEOUT_UI_UPDATE_MS = 2000;
+    // Key of the receiver of btStartDiscovery in mReceivers.
+    private static final String STREAMING_DISCOVERY_RECEIVER = "StreamingDiscoveryReceiver";
+    // Key of the receiver recording the adapter state transitions in mReceivers.
+    private static final String STATE_TIMELINE_RECEIVER = "StateTimelineReceiver";
     private final Context mContext;
     private final PackageManager mPackageManager;
     private static final BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-    private final JsonSerializer mJsonSerializer = new JsonSerializer();
-    private static final ConcurrentHashMap<String, BluetoothDevice> mDiscoveryResults =
-            new ConcurrentHashMap<>();
+    // Bounds of the discovery results kept over the lifetime of the process.
+    private static final int DISCOVERY_CACHE_CAPACITY = 256;
+    private static final long DISCOVERY_CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final DiscoveryCache<BluetoothDevice> mDiscoveryResults =
+            new DiscoveryCache<>(DISCOVERY_CACHE_CAPACITY, DISCOVERY_CACHE_TTL_MS);
     private volatile boolean mIsDiscoveryFinished = false;
+    // Signaled by BluetoothScanReceiver when the discovery process ends.
+    private final EventWaiter mDiscoveryWaiter = new EventWaiter();
     private final Map<String, BroadcastReceiver> mReceivers;
+    // Callbacks of btStartProfileConnectionEvents, removed on shutdown.
+    private final Set<String> mProfileConnectionCallbackIds =
+            Collections.synchronizedSet(new HashSet<String>());
+    // Transitions of the adapter state since this snippet was created.
+    private final StateTimeline mStateTimeline = new StateTimeline(STATE_TIMELINE_CAPACITY);
 
     public BluetoothAdapterSnippet() throws Throwable {
         mContext = InstrumentationRegistry.getInstrumentation().getContext();
@@ -85,6 +114,10 @@ public class BluetoothAdapterSnippet implements Snippet {
         mReceivers = Collections.synchronizedMap(new HashMap<String, BroadcastReceiver>());
         Utils.adaptShellPermissionIfRequired(mContext);
         mPackageManager = mContext.getPackageManager();
+        BroadcastReceiver stateReceiver = new StateTimelineReceiver();
+        mContext.registerReceiver(
+                stateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+        mReceivers.put(STATE_TIMELINE_RECEIVER, stateReceiver);
     }
 
     /**
@@ -98,7 +131,8 @@ public class BluetoothAdapterSnippet implements Snippet {
         if (pairedDevice != null) {
             return pairedDevice;
         }
-        BluetoothDevice discoveredDevice = mDiscoveryResults.get(deviceAddress);
+        BluetoothDevice discoveredDevice =
+                mDiscoveryResults.get(deviceAddress, System.currentTimeMillis());
         if (discoveredDevice != null) {
             return discoveredDevice;
         }
@@ -127,13 +161,24 @@ public class BluetoothAdapterSnippet implements Snippet {
         }
     }
 
+    /**
+     * Enables Bluetooth with a 30s timeout.
+     *
+     * @param quietPeriodMs Before enabling, how long the adapter state must not have changed for
+     *     it to be considered stable.
+     */
     @Rpc(description = "Enable bluetooth with a 30s timeout.")
-    public void btEnable() throws BluetoothAdapterSnippetException, InterruptedException {
+    public void btEnable(@RpcDefault("5000") Integer quietPeriodMs)
+            throws BluetoothAdapterSnippetException, InterruptedException {
         if (mBluetoothAdapter.getState() == BluetoothAdapter.STATE_ON) {
             return;
         }
-        waitForStableBtState();
+        waitForStableBtState(quietPeriodMs);
+        startEnablingBt();
+        waitForBtState(BluetoothAdapter.STATE_ON);
+    }
 
+    private void startEnablingBt() throws BluetoothAdapterSnippetException {
         if (Build.VERSION.SDK_INT >= 33) {
             // BluetoothAdapter#enable is removed from public SDK for 33 and above, so uses an
             // intent instead.
@@ -149,31 +194,51 @@ public class BluetoothAdapterSnippet implements Snippet {
         } else if (!mBluetoothAdapter.enable()) {
             throw new BluetoothAdapterSnippetException("Failed to start enabling bluetooth.");
         }
-        if (!Utils.waitUntil(
-                () -> mBluetoothAdapter.getState() == BluetoothAdapter.STATE_ON,
-                TIMEOUT_TOGGLE_STATE_SEC)) {
-            throw new BluetoothAdapterSnippetException(
-                    String.format(
-                            "Bluetooth did not turn on within %ss.", TIMEOUT_TOGGLE_STATE_SEC));
-        }
     }
 
+    /**
+     * Disables Bluetooth with a 30s timeout.
+     *
+     * @param quietPeriodMs Before disabling, how long the adapter state must not have changed for
+     *     it to be considered stable.
+     */
     @Rpc(description = "Disable bluetooth with a 30s timeout.")
-    public void btDisable() throws BluetoothAdapterSnippetException, InterruptedException {
+    public void btDisable(@RpcDefault("5000") Integer quietPeriodMs)
+            throws BluetoothAdapterSnippetException, InterruptedException {
         if (mBluetoothAdapter.getState() == BluetoothAdapter.STATE_OFF) {
             return;
         }
-        waitForStableBtState();
+        waitForStableBtState(quietPeriodMs);
         if (!mBluetoothAdapter.disable()) {
             throw new BluetoothAdapterSnippetException("Failed to start disabling bluetooth.");
         }
-        if (!Utils.waitUntil(
-                () -> mBluetoothAdapter.getState() == BluetoothAdapter.STATE_OFF,
-                TIMEOUT_TOGGLE_STATE_SEC)) {
-            throw new BluetoothAdapterSnippetException(
-                    String.format(
-                            "Bluetooth did not turn off within %ss.", TIMEOUT_TOGGLE_STATE_SEC));
+        waitForBtState(BluetoothAdapter.STATE_OFF);
+    }
+
+    /**
+     * Gets the transitions of the adapter state recorded since the given time, oldest first.
+     *
+     * <p>Each transition is a {@link Bundle} with "PreviousState" and "State", names of {@code
+     * BluetoothAdapter.STATE_*} constants, and "TimeMs", the time in milliseconds since the epoch
+     * the transition was received at. Only the last 100 transitions are kept.
+     *
+     * @param sinceTimeMs A time in milliseconds since the epoch, 0 for all the transitions.
+     */
+    @Rpc(description = "Get the transitions of the Bluetooth adapter state since the given time.")
+    public ArrayList<Bundle> btGetStateTimeline(@RpcDefault("0") Long sinceTimeMs) {
+        ArrayList<Bundle> results = new ArrayList<>();
+        for (StateTimeline.Transition transition :
+                mStateTimeline.getTransitionsSince(sinceTimeMs)) {
+            Bundle bundle = new Bundle();
+            bundle.putString(
+                    "PreviousState",
+                    MbsEnums.BLUETOOTH_ADAPTER_STATE.getString(transition.getPreviousState()));
+            bundle.putString(
+                    "State", MbsEnums.BLUETOOTH_ADAPTER_STATE.getString(transition.getState()));
+            bundle.putLong("TimeMs", transition.getTimeMs());
+            results.add(bundle);
         }
+        return results;
     }
 
     @Rpc(description = "Return true if Bluetooth is enabled, false otherwise.")
@@ -185,7 +250,31 @@ public class BluetoothAdapterSnippet implements Snippet {
             description =
                     "Get bluetooth discovery results, which is a list of serialized BluetoothDevice objects.")
     public ArrayList<Bundle> btGetCachedScanResults() {
-        return mJsonSerializer.serializeBluetoothDeviceList(mDiscoveryResults.values());
+        return btGetScanResultsSince(0L);
+    }
+
+    /**
+     * Returns the discovered devices seen since the given time, least recently seen first.
+     *
+     * <p>Devices are kept for {@link #DISCOVERY_CACHE_TTL_MS} after they were last seen, and at
+     * most {@link #DISCOVERY_CACHE_CAPACITY} devices are kept. Each returned {@link Bundle} is a
+     * serialized {@link BluetoothDevice} with "Rssi", the RSSI when it was last seen or
+     * Short.MIN_VALUE if not available, and "LastSeenTimeMs".
+     *
+     * @param sinceTimeMs A time in milliseconds since the epoch.
+     */
+    @Rpc(description = "Get the discovered devices seen since the given time.")
+    public ArrayList<Bundle> btGetScanResultsSince(Long sinceTimeMs) {
+        List<DiscoveryCache.Entry<BluetoothDevice>> entries =
+                mDiscoveryResults.getSeenSince(sinceTimeMs, System.currentTimeMillis());
+        ArrayList<Bundle> results = new ArrayList<>(entries.size());
+        for (DiscoveryCache.Entry<BluetoothDevice> entry : entries) {
+            Bundle device = JsonSerializer.serializeBluetoothDevice(entry.getValue());
+            device.putInt("Rssi", entry.getRssi());
+            device.putLong("LastSeenTimeMs", entry.getLastSeenTimeMs());
+            results.add(device);
+        }
+        return results;
     }
 
     @Rpc(description = "Set the friendly Bluetooth name of the local Bluetooth adapter.")
@@ -244,7 +333,8 @@ public class BluetoothAdapterSnippet implements Snippet {
                 throw new BluetoothAdapterSnippetException(
                         "Failed to initiate Bluetooth Discovery.");
             }
-            if (!Utils.waitUntil(() -> mIsDiscoveryFinished, 120)) {
+            if (mDiscoveryWaiter.waitUntil(() -> mIsDiscoveryFinished, 120)
+                    == EventWaiter.TIMED_OUT) {
                 throw new BluetoothAdapterSnippetException(
                         "Failed to get discovery results after 2 mins, timeout!");
             }
@@ -254,6 +344,60 @@ public class BluetoothAdapterSnippet implements Snippet {
         return btGetCachedScanResults();
     }
 
+    /**
+     * Starts discovery and posts an event for each device found, as soon as it is found.
+     *
+     * <p>An "onDeviceFound" event is posted for each {@link BluetoothDevice#ACTION_FOUND}
+     * broadcast, with the following info:
+     *
+     * <pre>
+     *          "Device", Bundle, the serialized BluetoothDevice
+     *          "Rssi", int, or Short.MIN_VALUE if not available
+     *          "DeviceClass", int, the class of device, or -1 if not available
+     *          "MajorDeviceClass", int, or -1 if not available
+     *          "ElapsedMs", long, since the discovery started
+     * </pre>
+     *
+     * <p>An "onDiscoveryFinished" event is posted when the discovery ends, with "DeviceCount",
+     * the number of distinct devices found, "TargetsFound", whether all the target devices were
+     * found, and "ElapsedMs". Found devices are also available through {@link
+     * #btGetCachedScanResults}.
+     *
+     * @param callbackId
+     * @param targetAddresses If given, the discovery is cancelled as soon as all the devices with
+     *     these addresses are found.
+     */
+    @AsyncRpc(description = "Start discovery and post an event for each device found.")
+    public void btStartDiscovery(String callbackId, @RpcOptional JSONArray targetAddresses)
+            throws BluetoothAdapterSnippetException, JSONException {
+        if (mBluetoothAdapter.isDiscovering()) {
+            mBluetoothAdapter.cancelDiscovery();
+        }
+        Set<String> targets = null;
+        if (targetAddresses != null) {
+            targets = new HashSet<>();
+            for (int i = 0; i < targetAddresses.length(); i++) {
+                targets.add(targetAddresses.getString(i).toUpperCase(Locale.US));
+            }
+        }
+        mDiscoveryResults.clear();
+        StreamingDiscoveryReceiver receiver = new StreamingDiscoveryReceiver(callbackId, targets);
+        BroadcastReceiver previous = mReceivers.put(STREAMING_DISCOVERY_RECEIVER, receiver);
+        if (previous != null) {
+            mContext.unregisterReceiver(previous);
+        }
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        mContext.registerReceiver(receiver, filter);
+        if (!mBluetoothAdapter.startDiscovery()) {
+            if (mReceivers.remove(STREAMING_DISCOVERY_RECEIVER, receiver)) {
+                mContext.unregisterReceiver(receiver);
+            }
+            throw new BluetoothAdapterSnippetException("Failed to initiate Bluetooth Discovery.");
+        }
+    }
+
     @Rpc(description = "Become discoverable in Bluetooth.")
     public void btBecomeDiscoverable(Integer duration) throws Throwable {
         if (!btIsEnabled()) {
@@ -315,7 +459,8 @@ public class BluetoothAdapterSnippet implements Snippet {
                 throw new BluetoothAdapterSnippetException(
                         "Failed to initiate to cancel bluetooth discovery.");
             }
-            if (!Utils.waitUntil(() -> mIsDiscoveryFinished, 120)) {
+            if (mDiscoveryWaiter.waitUntil(() -> mIsDiscoveryFinished, 120)
+                    == EventWaiter.TIMED_OUT) {
                 throw new BluetoothAdapterSnippetException(
                         "Failed to get discovery results after 2 mins, timeout!");
             }
@@ -348,7 +493,7 @@ public class BluetoothAdapterSnippet implements Snippet {
 
     @Rpc(description = "Pair with a bluetooth device.")
     public void btPairDevice(String deviceAddress) throws Throwable {
-        BluetoothDevice device = mDiscoveryResults.get(deviceAddress);
+        BluetoothDevice device = mDiscoveryResults.get(deviceAddress, System.currentTimeMillis());
         if (device == null) {
             throw new NoSuchElementException(
                     "No device with address "
@@ -357,13 +502,20 @@ public class BluetoothAdapterSnippet implements Snippet {
         }
         mContext.registerReceiver(
                 new PairingBroadcastReceiver(mContext), PairingBroadcastReceiver.filter);
-        if (!(boolean) Utils.invokeByReflection(device, "createBond")) {
-            throw new BluetoothAdapterSnippetException(
-                    "Failed to initiate the pairing process to device: " + deviceAddress);
-        }
-        if (!Utils.waitUntil(() -> device.getBondState() == BluetoothDevice.BOND_BONDED, 120)) {
-            throw new BluetoothAdapterSnippetException(
-                    "Failed to pair with device " + deviceAddress + " after 2min.");
+        try (EventWaiter waiter =
+                EventWaiter.forBroadcast(mContext, BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+            if (!(boolean) Utils.invokeByReflection(device, "createBond")) {
+                throw new BluetoothAdapterSnippetException(
+                        "Failed to initiate the pairing process to device: " + deviceAddress);
+            }
+            long elapsedMs =
+                    waiter.waitUntil(
+                            () -> device.getBondState() == BluetoothDevice.BOND_BONDED, 120);
+            if (elapsedMs == EventWaiter.TIMED_OUT) {
+                throw new BluetoothAdapterSnippetException(
+                        "Failed to pair with device " + deviceAddress + " after 2min.");
+            }
+            Log.d("Paired with device " + deviceAddress + " in " + elapsedMs + " ms.");
         }
     }
 
@@ -371,15 +523,20 @@ public class BluetoothAdapterSnippet implements Snippet {
     public void btUnpairDevice(String deviceAddress) throws Throwable {
         for (BluetoothDevice device : mBluetoothAdapter.getBondedDevices()) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
-                if (!(boolean) Utils.invokeByReflection(device, "removeBond")) {
-                    throw new BluetoothAdapterSnippetException(
-                            "Failed to initiate the un-pairing process for device: "
-                                    + deviceAddress);
-                }
-                if (!Utils.waitUntil(
-                        () -> device.getBondState() == BluetoothDevice.BOND_NONE, 30)) {
-                    throw new BluetoothAdapterSnippetException(
-                            "Failed to un-pair device " + deviceAddress + " after 30s.");
+                try (EventWaiter waiter =
+                        EventWaiter.forBroadcast(
+                                mContext, BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+                    if (!(boolean) Utils.invokeByReflection(device, "removeBond")) {
+                        throw new BluetoothAdapterSnippetException(
+                                "Failed to initiate the un-pairing process for device: "
+                                        + deviceAddress);
+                    }
+                    if (waiter.waitUntil(
+                                    () -> device.getBondState() == BluetoothDevice.BOND_NONE, 30)
+                            == EventWaiter.TIMED_OUT) {
+                        throw new BluetoothAdapterSnippetException(
+                                "Failed to un-pair device " + deviceAddress + " after 30s.");
+                    }
                 }
                 return;
             }
@@ -387,6 +544,54 @@ public class BluetoothAdapterSnippet implements Snippet {
         throw new NoSuchElementException("No device with address " + deviceAddress + " is paired.");
     }
 
+    /**
+     * Pairs with several discovered devices at once.
+     *
+     * <p>Bonding is started on all the devices, and a single receiver confirms their pairing
+     * requests and tracks their bond state, so the RPC returns as soon as the last device is done.
+     * Devices that are already paired succeed immediately.
+     *
+     * @param deviceAddresses The addresses of the devices to pair with.
+     * @param timeoutSec The time to wait for all the devices to be paired.
+     * @return A list of {@link Bundle}, one per device in the given order, see {@link
+     *     BondBatchReceiver#toBundles()}.
+     */
+    @Rpc(description = "Pair with several bluetooth devices at once.")
+    public ArrayList<Bundle> btPairDevices(
+            JSONArray deviceAddresses, @RpcDefault("120") Integer timeoutSec) throws Throwable {
+        BondBatchReceiver batch = new BondBatchReceiver(BluetoothDevice.BOND_BONDED);
+        long nowMs = System.currentTimeMillis();
+        for (int i = 0; i < deviceAddresses.length(); i++) {
+            String address = deviceAddresses.getString(i);
+            BluetoothDevice device = getPairedDeviceByAddress(address);
+            if (device == null) {
+                device = mDiscoveryResults.get(address, nowMs);
+            }
+            batch.add(address, device, device == null ? "Device has not been discovered." : null);
+        }
+        return batch.run("createBond", timeoutSec);
+    }
+
+    /**
+     * Un-pairs several devices at once.
+     *
+     * @param deviceAddresses The addresses of the devices to un-pair.
+     * @param timeoutSec The time to wait for all the devices to be un-paired.
+     * @return A list of {@link Bundle}, one per device in the given order, see {@link
+     *     BondBatchReceiver#toBundles()}.
+     */
+    @Rpc(description = "Un-pair several bluetooth devices at once.")
+    public ArrayList<Bundle> btUnpairDevices(
+            JSONArray deviceAddresses, @RpcDefault("30") Integer timeoutSec) throws Throwable {
+        BondBatchReceiver batch = new BondBatchReceiver(BluetoothDevice.BOND_NONE);
+        for (int i = 0; i < deviceAddresses.length(); i++) {
+            String address = deviceAddresses.getString(i);
+            BluetoothDevice device = getPairedDeviceByAddress(address);
+            batch.add(address, device, device == null ? "Device is not paired." : null);
+        }
+        return batch.run("removeBond", timeoutSec);
+    }
+
     @TargetApi(Build.VERSION_CODES.TIRAMISU)
     @RpcMinSdk(Build.VERSION_CODES.TIRAMISU)
     @Rpc(description = "Returns true if LE audio is supported, false otherwise.")
@@ -394,12 +599,37 @@ public class BluetoothAdapterSnippet implements Snippet {
         return mBluetoothAdapter.isLeAudioSupported() == BluetoothStatusCodes.FEATURE_SUPPORTED;
     }
 
+    /**
+     * Starts posting an "onProfileConnectionStateChanged" event each time a device connects or
+     * disconnects on the A2DP, Headset, Hearing Aid or LE Audio profile.
+     *
+     * <p>Each event carries the timeline of the connection state transitions and the latency from
+     * the first one, see {@link ProfileConnectionTracker}.
+     *
+     * @param callbackId
+     */
+    @AsyncRpc(description = "Start posting profile connection state events.")
+    public void btStartProfileConnectionEvents(String callbackId) {
+        ProfileConnectionTracker.getInstance(mContext).addCallback(callbackId);
+        mProfileConnectionCallbackIds.add(callbackId);
+    }
+
+    @Rpc(description = "Stop posting profile connection state events.")
+    public void btStopProfileConnectionEvents(String callbackId) {
+        ProfileConnectionTracker.getInstance(mContext).removeCallback(callbackId);
+        mProfileConnectionCallbackIds.remove(callbackId);
+    }
+
     @Override
     public void shutdown() {
         for (Map.Entry<String, BroadcastReceiver> entry : mReceivers.entrySet()) {
             mContext.unregisterReceiver(entry.getValue());
         }
         mReceivers.clear();
+        for (String callbackId : mProfileConnectionCallbackIds) {
+            ProfileConnectionTracker.getInstance(mContext).removeCallback(callbackId);
+        }
+        mProfileConnectionCallbackIds.clear();
     }
 
     private class BluetoothScanReceiver extends BroadcastReceiver {
@@ -413,40 +643,315 @@ public class BluetoothAdapterSnippet implements Snippet {
             String action = intent.getAction();
             if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
                 mIsDiscoveryFinished = true;
+                mDiscoveryWaiter.signal();
             } else if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                 BluetoothDevice device =
                         (BluetoothDevice) intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                mDiscoveryResults.put(device.getAddress(), device);
+                mDiscoveryResults.put(
+                        device.getAddress(),
+                        device,
+                        intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE),
+                        System.currentTimeMillis());
             }
         }
     }
 
     /**
-     * Waits until the bluetooth adapter state has stabilized. We consider BT state stabilized if it
-     * hasn't changed within 5 sec.
+     * Drives a batch of devices to a bond state, see {@link #btPairDevices} and {@link
+     * #btUnpairDevices}.
+     *
+     * <p>The receiver confirms the pairing requests of the devices in the batch, and records the
+     * time each device reaches the target bond state. A device whose bonding falls back to
+     * BOND_NONE has failed.
      */
-    private static void waitForStableBtState() throws BluetoothAdapterSnippetException {
-        long timeoutMs = System.currentTimeMillis() + TIMEOUT_TOGGLE_STATE_SEC * 1000;
-        long continuousStateIntervalMs =
-                System.currentTimeMillis() + BT_MATCHING_STATE_INTERVAL_SEC * 1000;
-        int prevState = mBluetoothAdapter.getState();
-        while (System.currentTimeMillis() < timeoutMs) {
-            // Delay.
-            Utils.waitUntil(() -> false, /* timeout= */ 1);
-
-            int currentState = mBluetoothAdapter.getState();
-            if (currentState != prevState) {
-                continuousStateIntervalMs =
-                        System.currentTimeMillis() + BT_MATCHING_STATE_INTERVAL_SEC * 1000;
+    private class BondBatchReceiver extends BroadcastReceiver {
+        private final int mTargetBondState;
+        // Addresses in the order they were added, upper case.
+        private final List<String> mAddresses = new ArrayList<>();
+        // Devices of the batch, by address.
+        private final Map<String, BluetoothDevice> mDevices = new HashMap<>();
+        // The following are guarded by this.
+        private final Set<String> mPendingAddresses = new HashSet<>();
+        private final Map<String, Long> mLatenciesMs = new HashMap<>();
+        private final Map<String, String> mErrors = new HashMap<>();
+        private final EventWaiter mWaiter = new EventWaiter();
+        private long mStartTimeMs;
+
+        BondBatchReceiver(int targetBondState) {
+            mTargetBondState = targetBondState;
+        }
+
+        /**
+         * Adds a device to the batch.
+         *
+         * <p>A device already in the target bond state succeeds without any action.
+         *
+         * @param device The device, or null if it was not found.
+         * @param error Why the device failed before starting, or null.
+         */
+        void add(String address, @Nullable BluetoothDevice device, @Nullable String error) {
+            String key = address.toUpperCase(Locale.US);
+            mAddresses.add(key);
+            if (device != null) {
+                mDevices.put(key, device);
+            }
+            if (error != null) {
+                mErrors.put(key, error);
+            } else if (device.getBondState() == mTargetBondState) {
+                mLatenciesMs.put(key, 0L);
+            } else {
+                mPendingAddresses.add(key);
+            }
+        }
+
+        /**
+         * Calls the bond method on all the pending devices, and waits until they are done.
+         *
+         * @return The results, see {@link #toBundles()}.
+         */
+        ArrayList<Bundle> run(String bondMethod, int timeoutSec) throws Throwable {
+            IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+            filter.addAction(BluetoothDevice.ACTION_PAIRING_REQUEST);
+            mContext.registerReceiver(this, filter);
+            try {
+                mStartTimeMs = System.currentTimeMillis();
+                List<String> pendingAddresses;
+                synchronized (this) {
+                    pendingAddresses = new ArrayList<>(mPendingAddresses);
+                }
+                for (String address : pendingAddresses) {
+                    BluetoothDevice device = mDevices.get(address);
+                    String error = null;
+                    try {
+                        if (!(boolean) Utils.invokeByReflection(device, bondMethod)) {
+                            error = "Failed to start " + bondMethod + ".";
+                        }
+                    } catch (Exception e) {
+                        // So that the other devices of the batch still get their results.
+                        error = "Failed to start " + bondMethod + ": " + e;
+                    }
+                    if (error != null) {
+                        finish(address, error);
+                    }
+                }
+                if (mWaiter.waitUntil(this::isDone, timeoutSec) == EventWaiter.TIMED_OUT) {
+                    synchronized (this) {
+                        for (String address : mPendingAddresses) {
+                            mErrors.put(address, "Timed out after " + timeoutSec + "s.");
+                        }
+                        mPendingAddresses.clear();
+                    }
+                }
+            } finally {
+                mContext.unregisterReceiver(this);
             }
-            if (continuousStateIntervalMs <= System.currentTimeMillis()) {
+            return toBundles();
+        }
+
+        private synchronized boolean isDone() {
+            return mPendingAddresses.isEmpty();
+        }
+
+        private synchronized void finish(String address, @Nullable String error) {
+            if (!mPendingAddresses.remove(address)) {
+                return;
+            }
+            if (error == null) {
+                mLatenciesMs.put(address, System.currentTimeMillis() - mStartTimeMs);
+            } else {
+                mErrors.put(address, error);
+            }
+            mWaiter.signal();
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            String address = device.getAddress().toUpperCase(Locale.US);
+            synchronized (this) {
+                if (!mPendingAddresses.contains(address)) {
+                    return;
+                }
+            }
+            if (BluetoothDevice.ACTION_PAIRING_REQUEST.equals(intent.getAction())) {
+                if (mTargetBondState == BluetoothDevice.BOND_BONDED) {
+                    Log.d("Confirming pairing with device: " + address);
+                    device.setPairingConfirmation(true);
+                }
                 return;
             }
-            prevState = currentState;
+            int bondState =
+                    intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
+            int previousBondState =
+                    intent.getIntExtra(
+                            BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.ERROR);
+            if (bondState == mTargetBondState) {
+                finish(address, null);
+            } else if (bondState == BluetoothDevice.BOND_NONE
+                    && previousBondState == BluetoothDevice.BOND_BONDING) {
+                finish(address, "Bonding failed.");
+            }
+        }
+
+        /**
+         * Returns one {@link Bundle} per device, in the order they were added, with "Address",
+         * "Success", "LatencyMs", the time it took to reach the target bond state, or -1 if it was
+         * not reached, "BondState", the bond state at the end, and "Error" on failure.
+         */
+        private synchronized ArrayList<Bundle> toBundles() {
+            ArrayList<Bundle> results = new ArrayList<>(mAddresses.size());
+            for (String address : mAddresses) {
+                Bundle result = new Bundle();
+                result.putString("Address", address);
+                String error = mErrors.get(address);
+                result.putBoolean("Success", error == null);
+                Long latencyMs = mLatenciesMs.get(address);
+                result.putLong("LatencyMs", latencyMs == null ? -1 : latencyMs);
+                BluetoothDevice device = mDevices.get(address);
+                if (device != null) {
+                    result.putString(
+                            "BondState",
+                            MbsEnums.BLUETOOTH_DEVICE_BOND_STATE.getString(
+                                    device.getBondState()));
+                }
+                if (error != null) {
+                    result.putString("Error", error);
+                }
+                results.add(result);
+            }
+            return results;
+        }
+    }
+
+    /** Posts discovery results as events, see {@link #btStartDiscovery}. */
+    private class StreamingDiscoveryReceiver extends BroadcastReceiver {
+        private final String mCallbackId;
+        // Addresses of the target devices not found yet, or null if there is no target.
+        private final Set<String> mRemainingTargets;
+        private final long mStartTimeMs = System.currentTimeMillis();
+        private final Set<String> mFoundAddresses = new HashSet<>();
+        // Whether this discovery has started. Cancelling a previous discovery is asynchronous, so
+        // its broadcasts can arrive after this receiver is registered and must be ignored.
+        private boolean mStarted = false;
+
+        StreamingDiscoveryReceiver(String callbackId, Set<String> targets) {
+            mCallbackId = callbackId;
+            mRemainingTargets = targets;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
+                mStarted = true;
+            } else if (!mStarted) {
+                Log.d("Ignoring " + action + " received before the discovery started.");
+            } else if (BluetoothDevice.ACTION_FOUND.equals(action)) {
+                BluetoothDevice device =
+                        (BluetoothDevice) intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                BluetoothClass bluetoothClass =
+                        (BluetoothClass) intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+                mDiscoveryResults.put(
+                        device.getAddress(), device, rssi, System.currentTimeMillis());
+                mFoundAddresses.add(device.getAddress());
+                SnippetEvent event = new SnippetEvent(mCallbackId, "onDeviceFound");
+                event.getData()
+                        .putBundle("Device", JsonSerializer.serializeBluetoothDevice(device));
+                event.getData().putInt("Rssi", rssi);
+                event.getData()
+                        .putInt(
+                                "DeviceClass",
+                                bluetoothClass == null ? -1 : bluetoothClass.getDeviceClass());
+                event.getData()
+                        .putInt(
+                                "MajorDeviceClass",
+                                bluetoothClass == null
+                                        ? -1
+                                        : bluetoothClass.getMajorDeviceClass());
+                event.getData().putLong("ElapsedMs", System.currentTimeMillis() - mStartTimeMs);
+                EventCache.getInstance().postEvent(event);
+                if (mRemainingTargets != null
+                        && mRemainingTargets.remove(device.getAddress().toUpperCase(Locale.US))
+                        && mRemainingTargets.isEmpty()) {
+                    Log.d("All target devices found, cancelling discovery.");
+                    mBluetoothAdapter.cancelDiscovery();
+                }
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                if (mReceivers.remove(STREAMING_DISCOVERY_RECEIVER, this)) {
+                    mContext.unregisterReceiver(this);
+                }
+                SnippetEvent event = new SnippetEvent(mCallbackId, "onDiscoveryFinished");
+                event.getData().putInt("DeviceCount", mFoundAddresses.size());
+                event.getData()
+                        .putBoolean(
+                                "TargetsFound",
+                                mRemainingTargets != null && mRemainingTargets.isEmpty());
+                event.getData().putLong("ElapsedMs", System.currentTimeMillis() - mStartTimeMs);
+                EventCache.getInstance().postEvent(event);
+            }
+        }
+    }
+
+    /** Records the transitions of the adapter state in {@link #mStateTimeline}. */
+    private class StateTimelineReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mStateTimeline.record(
+                    intent.getIntExtra(
+                            BluetoothAdapter.EXTRA_PREVIOUS_STATE, BluetoothAdapter.ERROR),
+                    intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR),
+                    System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Waits until the bluetooth adapter state has stabilized. We consider BT state stabilized if it
+     * is on or off, and no state change was broadcast within the quiet period.
+     */
+    private void waitForStableBtState(long quietPeriodMs)
+            throws BluetoothAdapterSnippetException, InterruptedException {
+        long elapsedMs =
+                mStateTimeline.waitUntilSettled(
+                        () -> {
+                            int state = mBluetoothAdapter.getState();
+                            return state == BluetoothAdapter.STATE_ON
+                                    || state == BluetoothAdapter.STATE_OFF;
+                        },
+                        quietPeriodMs,
+                        TimeUnit.SECONDS.toMillis(TIMEOUT_TOGGLE_STATE_SEC));
+        if (elapsedMs == StateTimeline.TIMED_OUT) {
+            throw new BluetoothAdapterSnippetException(
+                    String.format(
+                            "Failed to reach a stable Bluetooth state within %d s",
+                            TIMEOUT_TOGGLE_STATE_SEC));
+        }
+        Log.d("Bluetooth state was stable after " + elapsedMs + " ms.");
+    }
+
+    /** Waits until the adapter reaches the given state, waking up on each state change. */
+    private void waitForBtState(int state)
+            throws BluetoothAdapterSnippetException, InterruptedException {
+        String stateName = MbsEnums.BLUETOOTH_ADAPTER_STATE.getString(state);
+        long startTimeMs = System.currentTimeMillis();
+        long elapsedMs =
+                mStateTimeline.waitUntilSettled(
+                        () -> mBluetoothAdapter.getState() == state,
+                        /* quietPeriodMs= */ 0,
+                        TimeUnit.SECONDS.toMillis(TIMEOUT_TOGGLE_STATE_SEC));
+        if (elapsedMs == StateTimeline.TIMED_OUT) {
+            throw new BluetoothAdapterSnippetException(
+                    String.format(
+                            "Bluetooth did not reach %s within %ss.",
+                            stateName, TIMEOUT_TOGGLE_STATE_SEC));
         }
-        throw new BluetoothAdapterSnippetException(
-                String.format(
-                        "Failed to reach a stable Bluetooth state within %d s",
-                        TIMEOUT_TOGGLE_STATE_SEC));
+        Log.d(
+                "Bluetooth reached "
+                        + stateName
+                        + " in "
+                        + elapsedMs
+                        + " ms, after "
+                        + mStateTimeline.getTransitionsSince(startTimeMs).size()
+                        + " transitions.");
     }
 }
@@ -21,6 +21,7 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
@@ -32,6 +33,7 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
 import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
+import com.google.android.mobly.snippet.bundled.utils.Utils;
 import com.google.android.mobly.snippet.event.EventCache;
 import com.google.android.mobly.snippet.event.SnippetEvent;
 import com.google.android.mobly.snippet.rpc.AsyncRpc;
@@ -39,8 +41,16 @@ import com.google.android.mobly.snippet.rpc.Rpc;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
 import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 /** Snippet class exposing Android APIs in BluetoothGatt. */
 public class BluetoothGattClientSnippet implements Snippet {
@@ -52,68 +62,175 @@ public class BluetoothGattClientSnippet implements Snippet {
         }
     }
 
+    // The ATT MTU before any MTU exchange, and the size of the header of an ATT write.
+    private static final int DEFAULT_MTU = 23;
+    private static final int ATT_HEADER_SIZE = 3;
+
     private final Context context;
     private final EventCache eventCache;
-    private final HashMap<String, HashMap<String, BluetoothGattCharacteristic>>
-            characteristicHashMap;
+    // GATT clients keyed by remote device address.
+    private final ConcurrentHashMap<String, GattConnection> connections;
+
+    // Address of the most recently connected device, used by the RPCs without an address.
+    private volatile String defaultDeviceAddress;
 
-    private BluetoothGatt bluetoothGattClient;
+    /** The state of the GATT client connected to one remote device. */
+    private static class GattConnection {
+        // Set once connectGatt returns, callbacks may run before that.
+        private volatile BluetoothGatt gatt;
+        private final ConcurrentHashMap<String, HashMap<String, BluetoothGattCharacteristic>>
+                characteristicHashMap = new ConcurrentHashMap<>();
+        private final long connectionStartTime;
+        private volatile long connectionEndTime = 0;
+        // The service tree serialized at the last discovery, and the number of discoveries.
+        private volatile Bundle serializedGatt;
+        private volatile int generationId = 0;
+        // The ATT MTU negotiated with the device.
+        private volatile int mtu = DEFAULT_MTU;
+        // The batch of operations being run by bleRunGattOperations, if any.
+        private volatile GattOperationBatch activeBatch;
+
+        GattConnection(long connectionStartTime) {
+            this.connectionStartTime = connectionStartTime;
+        }
 
-    private long connectionStartTime = 0;
-    private long connectionEndTime = 0;
+        BluetoothGattCharacteristic getCharacteristic(
+                String serviceUuid, String characteristicUuid)
+                throws BluetoothGattClientSnippetException {
+            HashMap<String, BluetoothGattCharacteristic> characteristics =
+                    characteristicHashMap.get(serviceUuid);
+            if (characteristics == null || !characteristics.containsKey(characteristicUuid)) {
+                throw new BluetoothGattClientSnippetException(
+                        "Characteristic "
+                                + characteristicUuid
+                                + " of service "
+                                + serviceUuid
+                                + " is not discovered.");
+            }
+            return characteristics.get(characteristicUuid);
+        }
+    }
 
     public BluetoothGattClientSnippet() {
         context = InstrumentationRegistry.getInstrumentation().getContext();
         eventCache = EventCache.getInstance();
-        characteristicHashMap = new HashMap<>();
+        connections = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Connects a GATT client to the device.
+     *
+     * <p>Clients to different devices are kept side by side, so several devices can be driven at
+     * once with the RPCs that take a device address. The RPCs without a device address act on the
+     * most recently connected device. Connecting again to a device closes its previous client.
+     */
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
     @AsyncRpc(description = "Start BLE client.")
-    public void bleConnectGatt(String callbackId, String deviceAddress) throws JSONException {
+    public void bleConnectGatt(String callbackId, String deviceAddress)
+            throws BluetoothGattClientSnippetException {
         BluetoothDevice remoteDevice =
                 BluetoothAdapter.getDefaultAdapter().getRemoteDevice(deviceAddress);
-        BluetoothGattCallback gattCallback = new DefaultBluetoothGattCallback(callbackId);
-        connectionStartTime = System.currentTimeMillis();
-        bluetoothGattClient = remoteDevice.connectGatt(context, false, gattCallback);
+        BluetoothGattCallback gattCallback =
+                new DefaultBluetoothGattCallback(callbackId, remoteDevice.getAddress());
+        long connectionStartTime = System.currentTimeMillis();
+        // Register the connection before connecting, so the callback can always find it.
+        synchronized (connections) {
+            GattConnection previous = connections.remove(remoteDevice.getAddress());
+            if (previous != null && previous.gatt != null) {
+                previous.gatt.close();
+            }
+            GattConnection connection = new GattConnection(connectionStartTime);
+            connections.put(remoteDevice.getAddress(), connection);
+            connection.gatt = remoteDevice.connectGatt(context, false, gattCallback);
+            if (connection.gatt == null) {
+                connections.remove(remoteDevice.getAddress());
+                throw new BluetoothGattClientSnippetException(
+                        "Failed to connect GATT to " + deviceAddress);
+            }
+            defaultDeviceAddress = remoteDevice.getAddress();
+        }
         Log.d("Connection start time is " + connectionStartTime);
-        connectionEndTime = 0;
+    }
+
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Get the addresses of the devices with a BLE client.")
+    public ArrayList<String> bleGetGattClientAddresses() {
+        return new ArrayList<>(connections.keySet());
     }
 
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
     @Rpc(description = "Start BLE service discovery")
     public long bleDiscoverServices() throws BluetoothGattClientSnippetException {
-        if (bluetoothGattClient == null) {
-            throw new BluetoothGattClientSnippetException("BLE client is not initialized.");
-        }
+        return bleDiscoverServicesOnDevice(defaultDeviceAddress);
+    }
+
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Start BLE service discovery on the given device.")
+    public long bleDiscoverServicesOnDevice(String deviceAddress)
+            throws BluetoothGattClientSnippetException {
+        BluetoothGatt gatt = getConnection(deviceAddress).gatt;
         long discoverServicesStartTime = SystemClock.elapsedRealtimeNanos();
         Log.d("Discover services start time is " + discoverServicesStartTime);
-        boolean result = bluetoothGattClient.discoverServices();
+        boolean result = gatt.discoverServices();
         if (!result) {
             throw new BluetoothGattClientSnippetException("Discover services returned false.");
         }
         return discoverServicesStartTime;
     }
 
+    /**
+     * Returns the service tree of the device, as serialized at the last service discovery.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "generationId", int, the same as in the events posted since that discovery
+     *          "gatt", Bundle, with the same content as in the "onServiceDiscovered" event
+     * </pre>
+     */
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Get the services discovered on the given device.")
+    public Bundle bleGetServices(String deviceAddress) throws BluetoothGattClientSnippetException {
+        GattConnection connection = getConnection(deviceAddress);
+        Bundle result = new Bundle();
+        synchronized (connection) {
+            if (connection.serializedGatt == null) {
+                throw new BluetoothGattClientSnippetException(
+                        "Services are not discovered on device " + deviceAddress);
+            }
+            result.putInt("generationId", connection.generationId);
+            result.putBundle("gatt", connection.serializedGatt);
+        }
+        return result;
+    }
+
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
     @Rpc(description = "Stop BLE client.")
     public void bleDisconnect() throws BluetoothGattClientSnippetException {
-        if (bluetoothGattClient == null) {
-            throw new BluetoothGattClientSnippetException("BLE client is not initialized.");
-        }
-        bluetoothGattClient.disconnect();
+        bleDisconnectDevice(defaultDeviceAddress);
+    }
+
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Stop BLE client of the given device.")
+    public void bleDisconnectDevice(String deviceAddress)
+            throws BluetoothGattClientSnippetException {
+        getConnection(deviceAddress).gatt.disconnect();
     }
 
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
     @Rpc(description = "BLE read operation.")
     public boolean bleReadOperation(String serviceUuid, String characteristicUuid)
             throws JSONException, BluetoothGattClientSnippetException {
-        if (bluetoothGattClient == null) {
-            throw new BluetoothGattClientSnippetException("BLE client is not initialized.");
-        }
+        return bleReadOperationOnDevice(defaultDeviceAddress, serviceUuid, characteristicUuid);
+    }
+
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "BLE read operation on the given device.")
+    public boolean bleReadOperationOnDevice(
+            String deviceAddress, String serviceUuid, String characteristicUuid)
+            throws JSONException, BluetoothGattClientSnippetException {
+        GattConnection connection = getConnection(deviceAddress);
         boolean result =
-                bluetoothGattClient.readCharacteristic(
-                        characteristicHashMap.get(serviceUuid).get(characteristicUuid));
+                connection.gatt.readCharacteristic(
+                        connection.getCharacteristic(serviceUuid, characteristicUuid));
         Log.d("Read operation returned result " + result);
         return result;
     }
@@ -122,42 +239,432 @@ public class BluetoothGattClientSnippet implements Snippet {
     @Rpc(description = "BLE write operation.")
     public boolean bleWriteOperation(String serviceUuid, String characteristicUuid, String data)
             throws JSONException, BluetoothGattClientSnippetException {
-        if (bluetoothGattClient == null) {
-            throw new BluetoothGattClientSnippetException("BLE client is not initialized.");
-        }
+        return bleWriteOperationOnDevice(
+                defaultDeviceAddress, serviceUuid, characteristicUuid, data);
+    }
+
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "BLE write operation on the given device.")
+    public boolean bleWriteOperationOnDevice(
+            String deviceAddress, String serviceUuid, String characteristicUuid, String data)
+            throws JSONException, BluetoothGattClientSnippetException {
+        GattConnection connection = getConnection(deviceAddress);
         BluetoothGattCharacteristic characteristic =
-                characteristicHashMap.get(serviceUuid).get(characteristicUuid);
+                connection.getCharacteristic(serviceUuid, characteristicUuid);
         characteristic.setValue(Base64.decode(data, Base64.NO_WRAP));
-        boolean result = bluetoothGattClient.writeCharacteristic(characteristic);
+        boolean result = connection.gatt.writeCharacteristic(characteristic);
         Log.d("Write operation returned result " + result);
         return result;
     }
 
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
     @Rpc(description = "Change MTU.")
-    public void bleRequestMtu(int mtu) {
-        bluetoothGattClient.requestMtu(mtu);
+    public void bleRequestMtu(int mtu) throws BluetoothGattClientSnippetException {
+        bleRequestMtuOnDevice(defaultDeviceAddress, mtu);
+    }
+
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Change MTU of the connection to the given device.")
+    public void bleRequestMtuOnDevice(String deviceAddress, int mtu)
+            throws BluetoothGattClientSnippetException {
+        getConnection(deviceAddress).gatt.requestMtu(mtu);
+    }
+
+    /**
+     * Runs a batch of GATT operations back to back on the given device.
+     *
+     * <p>Only one GATT operation can be outstanding per connection, so each operation is started
+     * from the completion callback of the previous one instead of waiting for a round trip to the
+     * host. No per-operation event is posted for the operations of the batch.
+     *
+     * @param deviceAddress The address of a device connected with {@link #bleConnectGatt}.
+     * @param operations A JSONArray of operations, run in order. E.g.
+     *     <pre>
+     *          [
+     *            {"Type": "READ", "ServiceUuid": ..., "CharacteristicUuid": ...},
+     *            {"Type": "WRITE", "ServiceUuid": ..., "CharacteristicUuid": ...,
+     *             "Data": (Base64)},
+     *            {"Type": "WRITE_DESCRIPTOR", "ServiceUuid": ..., "CharacteristicUuid": ...,
+     *             "DescriptorUuid": ..., "Data": (Base64)},
+     *          ]
+     *     </pre>
+     *
+     * @param timeoutSec The number of seconds to wait for the whole batch.
+     * @return One {@link Bundle} per operation with "Type", "Status", "LatencyUs" and, for reads,
+     *     "Data". Operations that could not be started have the status "START_FAILED", and
+     *     operations that did not complete within the timeout have the status "TIMEOUT".
+     */
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Run a batch of GATT operations back to back on the given device.")
+    public ArrayList<Bundle> bleRunGattOperations(
+            String deviceAddress, JSONArray operations, Integer timeoutSec)
+            throws JSONException, BluetoothGattClientSnippetException, InterruptedException {
+        GattConnection connection = getConnection(deviceAddress);
+        ArrayList<GattOperation> ops = new ArrayList<>(operations.length());
+        for (int i = 0; i < operations.length(); i++) {
+            ops.add(GattOperation.fromJson(connection, operations.getJSONObject(i)));
+        }
+        GattOperationBatch batch = new GattOperationBatch(connection.gatt, ops);
+        runBatch(connection, batch, timeoutSec);
+        return batch.toBundles();
+    }
+
+    /**
+     * Measures the write throughput to a characteristic of the given device.
+     *
+     * <p>{@code totalBytes} bytes are written in chunks of the negotiated MTU minus the 3 byte ATT
+     * header, each chunk being started from the write callback of the previous one. Call {@link
+     * #bleRequestMtuOnDevice} first to benchmark with a larger MTU, and pair with {@link
+     * BluetoothGattServerSnippet#bleStartThroughputCounter} on the server to check the number of
+     * bytes received.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "BytesSent", long, the bytes of the chunks written successfully
+     *          "ChunkSize", int
+     *          "ChunkCount", int
+     *          "ErrorCount", int, the chunks that failed, could not start or timed out
+     *          "ElapsedMs", long
+     *          "BytesPerSecond", double
+     *          "WriteLatencyP50Us", long, from starting a successful write to its callback
+     *          "WriteLatencyP90Us", long
+     *          "WriteLatencyP99Us", long
+     *          "WriteLatencyMaxUs", long
+     * </pre>
+     *
+     * @param deviceAddress The address of a device connected with {@link #bleConnectGatt}.
+     * @param serviceUuid The service of the characteristic to write to.
+     * @param characteristicUuid The characteristic to write to.
+     * @param totalBytes The number of bytes to write.
+     * @param withResponse Whether to use acknowledged writes instead of writes without response.
+     * @param timeoutSec The number of seconds to wait for all the chunks to be written.
+     */
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Measure the BLE write throughput to a characteristic of the device.")
+    public Bundle bleRunThroughputBenchmark(
+            String deviceAddress,
+            String serviceUuid,
+            String characteristicUuid,
+            Integer totalBytes,
+            Boolean withResponse,
+            Integer timeoutSec)
+            throws BluetoothGattClientSnippetException, InterruptedException {
+        GattConnection connection = getConnection(deviceAddress);
+        BluetoothGattCharacteristic characteristic =
+                connection.getCharacteristic(serviceUuid, characteristicUuid);
+        int chunkSize = connection.mtu - ATT_HEADER_SIZE;
+        int writeType =
+                withResponse
+                        ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                        : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        ArrayList<GattOperation> ops = new ArrayList<>();
+        for (int sent = 0; sent < totalBytes; sent += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, totalBytes - sent)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (byte) (sent + i);
+            }
+            ops.add(GattOperation.write(characteristic, chunk, writeType));
+        }
+        GattOperationBatch batch = new GattOperationBatch(connection.gatt, ops);
+        int originalWriteType = characteristic.getWriteType();
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        try {
+            runBatch(connection, batch, timeoutSec);
+        } finally {
+            characteristic.setWriteType(originalWriteType);
+        }
+        long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+
+        long bytesSent = 0;
+        int errorCount = 0;
+        long[] latenciesUs = new long[ops.size()];
+        int latencyCount = 0;
+        for (int i = 0; i < ops.size(); i++) {
+            if (batch.statuses[i] == BluetoothGatt.GATT_SUCCESS) {
+                bytesSent += ops.get(i).data.length;
+                latenciesUs[latencyCount++] = batch.latenciesUs[i];
+            } else {
+                errorCount++;
+            }
+        }
+        Arrays.sort(latenciesUs, 0, latencyCount);
+        Bundle result = new Bundle();
+        result.putLong("BytesSent", bytesSent);
+        result.putInt("ChunkSize", chunkSize);
+        result.putInt("ChunkCount", ops.size());
+        result.putInt("ErrorCount", errorCount);
+        result.putLong("ElapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        result.putDouble(
+                "BytesPerSecond", elapsedNanos == 0 ? 0 : bytesSent * 1e9 / elapsedNanos);
+        result.putLong("WriteLatencyP50Us", percentile(latenciesUs, latencyCount, 50));
+        result.putLong("WriteLatencyP90Us", percentile(latenciesUs, latencyCount, 90));
+        result.putLong("WriteLatencyP99Us", percentile(latenciesUs, latencyCount, 99));
+        result.putLong("WriteLatencyMaxUs", percentile(latenciesUs, latencyCount, 100));
+        return result;
+    }
+
+    /** Returns the value at the percentile of the first {@code count} sorted values, or 0. */
+    private static long percentile(long[] sortedValues, int count, int percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        return sortedValues[(int) Utils.getNearestRank(percentile, count) - 1];
+    }
+
+    private void runBatch(GattConnection connection, GattOperationBatch batch, int timeoutSec)
+            throws BluetoothGattClientSnippetException, InterruptedException {
+        synchronized (connection) {
+            if (connection.activeBatch != null) {
+                throw new BluetoothGattClientSnippetException(
+                        "A batch of GATT operations is already running on "
+                                + connection.gatt.getDevice().getAddress());
+            }
+            connection.activeBatch = batch;
+        }
+        try {
+            batch.startNext();
+            if (!batch.done.await(timeoutSec, TimeUnit.SECONDS)) {
+                Log.e("Batch of GATT operations timed out.");
+            }
+            batch.finish();
+        } finally {
+            connection.activeBatch = null;
+        }
+    }
+
+    private GattConnection getConnection(String deviceAddress)
+            throws BluetoothGattClientSnippetException {
+        GattConnection connection = deviceAddress == null ? null : connections.get(deviceAddress);
+        if (connection == null) {
+            throw new BluetoothGattClientSnippetException(
+                    deviceAddress == null
+                            ? "BLE client is not initialized."
+                            : "BLE client is not initialized for device " + deviceAddress);
+        }
+        return connection;
+    }
+
+    /** A single read or write run as part of a {@link GattOperationBatch}. */
+    private static class GattOperation {
+        private static final String READ = "READ";
+        private static final String WRITE = "WRITE";
+        private static final String WRITE_DESCRIPTOR = "WRITE_DESCRIPTOR";
+
+        private final String type;
+        private final BluetoothGattCharacteristic characteristic;
+        private final BluetoothGattDescriptor descriptor;
+        private final byte[] data;
+        // The write type to use for WRITE operations, or null to keep the characteristic's.
+        private final Integer writeType;
+
+        private GattOperation(
+                String type,
+                BluetoothGattCharacteristic characteristic,
+                BluetoothGattDescriptor descriptor,
+                byte[] data) {
+            this(type, characteristic, descriptor, data, null);
+        }
+
+        private GattOperation(
+                String type,
+                BluetoothGattCharacteristic characteristic,
+                BluetoothGattDescriptor descriptor,
+                byte[] data,
+                Integer writeType) {
+            this.type = type;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.data = data;
+            this.writeType = writeType;
+        }
+
+        static GattOperation write(
+                BluetoothGattCharacteristic characteristic, byte[] data, int writeType) {
+            return new GattOperation(WRITE, characteristic, null, data, writeType);
+        }
+
+        static GattOperation fromJson(GattConnection connection, JSONObject jsonObject)
+                throws JSONException, BluetoothGattClientSnippetException {
+            String type = jsonObject.getString("Type");
+            BluetoothGattCharacteristic characteristic =
+                    connection.getCharacteristic(
+                            jsonObject.getString("ServiceUuid"),
+                            jsonObject.getString("CharacteristicUuid"));
+            switch (type) {
+                case READ:
+                    return new GattOperation(type, characteristic, null, null);
+                case WRITE:
+                    return new GattOperation(
+                            type,
+                            characteristic,
+                            null,
+                            Base64.decode(jsonObject.getString("Data"), Base64.NO_WRAP));
+                case WRITE_DESCRIPTOR:
+                    String descriptorUuid = jsonObject.getString("DescriptorUuid");
+                    BluetoothGattDescriptor descriptor =
+                            characteristic.getDescriptor(UUID.fromString(descriptorUuid));
+                    if (descriptor == null) {
+                        throw new BluetoothGattClientSnippetException(
+                                "Descriptor " + descriptorUuid + " is not discovered.");
+                    }
+                    return new GattOperation(
+                            type,
+                            characteristic,
+                            descriptor,
+                            Base64.decode(jsonObject.getString("Data"), Base64.NO_WRAP));
+                default:
+                    throw new BluetoothGattClientSnippetException(
+                            "Unknown GATT operation type: " + type);
+            }
+        }
+
+        boolean start(BluetoothGatt gatt) {
+            switch (type) {
+                case READ:
+                    return gatt.readCharacteristic(characteristic);
+                case WRITE:
+                    if (writeType != null) {
+                        characteristic.setWriteType(writeType);
+                    }
+                    characteristic.setValue(data);
+                    return gatt.writeCharacteristic(characteristic);
+                default:
+                    descriptor.setValue(data);
+                    return gatt.writeDescriptor(descriptor);
+            }
+        }
+    }
+
+    /** Runs GATT operations one after another, starting each from the previous callback. */
+    private static class GattOperationBatch {
+        // Statuses recorded for operations that did not complete, next to the GATT statuses.
+        private static final int STATUS_START_FAILED = -1;
+        private static final int STATUS_TIMEOUT = -2;
+
+        private final BluetoothGatt gatt;
+        private final List<GattOperation> operations;
+        // Per-operation results, kept as arrays so long batches do not allocate per operation.
+        private final int[] statuses;
+        private final long[] latenciesUs;
+        private final byte[][] readValues;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int completedCount = 0;
+        private long operationStartNanos;
+
+        GattOperationBatch(BluetoothGatt gatt, List<GattOperation> operations) {
+            this.gatt = gatt;
+            this.operations = operations;
+            this.statuses = new int[operations.size()];
+            this.latenciesUs = new long[operations.size()];
+            this.readValues = new byte[operations.size()][];
+        }
+
+        /** Starts the next operation, skipping those that fail to start. */
+        synchronized void startNext() {
+            while (completedCount < operations.size()) {
+                operationStartNanos = SystemClock.elapsedRealtimeNanos();
+                if (operations.get(completedCount).start(gatt)) {
+                    return;
+                }
+                statuses[completedCount++] = STATUS_START_FAILED;
+            }
+            done.countDown();
+        }
+
+        /** Records the completion of the current operation and starts the next one. */
+        synchronized void onComplete(int status, byte[] value) {
+            if (done.getCount() == 0) {
+                return;
+            }
+            latenciesUs[completedCount] =
+                    TimeUnit.NANOSECONDS.toMicros(
+                            SystemClock.elapsedRealtimeNanos() - operationStartNanos);
+            statuses[completedCount] = status;
+            if (operations.get(completedCount).type.equals(GattOperation.READ)) {
+                readValues[completedCount] = value;
+            }
+            completedCount++;
+            startNext();
+        }
+
+        /** Stops the batch, marking the operations that did not complete as timed out. */
+        synchronized void finish() {
+            while (completedCount < operations.size()) {
+                statuses[completedCount++] = STATUS_TIMEOUT;
+            }
+            done.countDown();
+        }
+
+        synchronized ArrayList<Bundle> toBundles() {
+            ArrayList<Bundle> results = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                Bundle result = new Bundle();
+                result.putString("Type", operations.get(i).type);
+                if (statuses[i] == STATUS_START_FAILED) {
+                    result.putString("Status", "START_FAILED");
+                } else if (statuses[i] == STATUS_TIMEOUT) {
+                    result.putString("Status", "TIMEOUT");
+                } else {
+                    result.putString("Status", MbsEnums.BLE_STATUS_TYPE.getString(statuses[i]));
+                }
+                result.putLong("LatencyUs", latenciesUs[i]);
+                if (readValues[i] != null) {
+                    result.putString(
+                            "Data", Base64.encodeToString(readValues[i], Base64.NO_WRAP));
+                }
+                results.add(result);
+            }
+            return results;
+        }
     }
 
     private class DefaultBluetoothGattCallback extends BluetoothGattCallback {
         private final String callbackId;
+        private final String deviceAddress;
 
-        DefaultBluetoothGattCallback(String callbackId) {
+        DefaultBluetoothGattCallback(String callbackId, String deviceAddress) {
             this.callbackId = callbackId;
+            this.deviceAddress = deviceAddress;
+        }
+
+        /**
+         * Adds the device address and the generation ID of its service tree to an event.
+         *
+         * <p>The service tree itself is only sent with "onServiceDiscovered", or returned by
+         * {@link #bleGetServices}, so that frequent events stay small and cheap to build.
+         */
+        private void putGattReference(SnippetEvent event) {
+            GattConnection connection = connections.get(deviceAddress);
+            event.getData().putString("deviceAddress", deviceAddress);
+            event.getData()
+                    .putInt("generationId", connection == null ? 0 : connection.generationId);
+        }
+
+        private Bundle serializeCharacteristicRef(BluetoothGattCharacteristic characteristic) {
+            Bundle result = new Bundle();
+            result.putString("UUID", characteristic.getUuid().toString());
+            result.putString("ServiceUUID", characteristic.getService().getUuid().toString());
+            return result;
+        }
+
+        private GattOperationBatch getActiveBatch() {
+            GattConnection connection = connections.get(deviceAddress);
+            return connection == null ? null : connection.activeBatch;
         }
 
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             SnippetEvent event = new SnippetEvent(callbackId, "onConnectionStateChange");
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                connectionEndTime = System.currentTimeMillis();
+            GattConnection connection = connections.get(deviceAddress);
+            if (newState == BluetoothProfile.STATE_CONNECTED && connection != null) {
+                connection.connectionEndTime = System.currentTimeMillis();
                 event.getData().putLong(
-                        "gattConnectionTimeMs", connectionEndTime - connectionStartTime);
-                Log.d("Connection end time is " + connectionEndTime);
+                        "gattConnectionTimeMs",
+                        connection.connectionEndTime - connection.connectionStartTime);
+                Log.d("Connection end time is " + connection.connectionEndTime);
             }
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
             event.getData().putString("newState", MbsEnums.BLE_CONNECT_STATUS.getString(newState));
-            event.getData().putBundle("gatt", JsonSerializer.serializeBluetoothGatt(gatt));
+            putGattReference(event);
             eventCache.postEvent(event);
         }
 
@@ -167,18 +674,33 @@ public class BluetoothGattClientSnippet implements Snippet {
             Log.d("Discover services end time is " + discoverServicesEndTime);
             SnippetEvent event = new SnippetEvent(callbackId, "onServiceDiscovered");
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
-            ArrayList<Bundle> services = new ArrayList<>();
-            for (BluetoothGattService service : gatt.getServices()) {
-                HashMap<String, BluetoothGattCharacteristic> characteristics = new HashMap<>();
-                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-                    characteristics.put(characteristic.getUuid().toString(), characteristic);
+            GattConnection connection = connections.get(deviceAddress);
+            if (connection != null) {
+                for (BluetoothGattService service : gatt.getServices()) {
+                    HashMap<String, BluetoothGattCharacteristic> characteristics =
+                            new HashMap<>();
+                    for (BluetoothGattCharacteristic characteristic :
+                            service.getCharacteristics()) {
+                        characteristics.put(characteristic.getUuid().toString(), characteristic);
+                    }
+                    connection.characteristicHashMap.put(
+                            service.getUuid().toString(), characteristics);
+                }
+            }
+            // The service tree is serialized once per discovery, and later events refer to it by
+            // its generation ID.
+            Bundle serializedGatt = JsonSerializer.serializeBluetoothGatt(gatt);
+            ArrayList<Bundle> services = serializedGatt.getParcelableArrayList("Services");
+            if (connection != null) {
+                synchronized (connection) {
+                    connection.serializedGatt = serializedGatt;
+                    connection.generationId++;
                 }
-                characteristicHashMap.put(service.getUuid().toString(), characteristics);
-                services.add(JsonSerializer.serializeBluetoothGattService(service));
             }
             // TODO(66740428): Should not return services directly
             event.getData().putParcelableArrayList("Services", services);
-            event.getData().putBundle("gatt", JsonSerializer.serializeBluetoothGatt(gatt));
+            event.getData().putBundle("gatt", serializedGatt);
+            putGattReference(event);
             event.getData().putLong("discoveryServicesEndTime", discoverServicesEndTime);
             eventCache.postEvent(event);
         }
@@ -186,48 +708,76 @@ public class BluetoothGattClientSnippet implements Snippet {
         @Override
         public void onCharacteristicRead(
                 BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            GattOperationBatch batch = getActiveBatch();
+            if (batch != null) {
+                batch.onComplete(status, characteristic.getValue());
+                return;
+            }
             SnippetEvent event = new SnippetEvent(callbackId, "onCharacteristicRead");
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
-            // TODO(66740428): Should return the characteristic instead of value
             event.getData()
                     .putString("Data",
                             Base64.encodeToString(characteristic.getValue(), Base64.NO_WRAP));
-            event.getData().putBundle("gatt", JsonSerializer.serializeBluetoothGatt(gatt));
+            event.getData().putBundle("characteristic", serializeCharacteristicRef(characteristic));
+            putGattReference(event);
             eventCache.postEvent(event);
         }
 
         @Override
         public void onCharacteristicWrite(
                 BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            GattOperationBatch batch = getActiveBatch();
+            if (batch != null) {
+                batch.onComplete(status, null);
+                return;
+            }
             SnippetEvent event = new SnippetEvent(callbackId, "onCharacteristicWrite");
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
-            // TODO(66740428): Should return the characteristic instead of value
-            event.getData().putBundle("gatt", JsonSerializer.serializeBluetoothGatt(gatt));
+            event.getData().putBundle("characteristic", serializeCharacteristicRef(characteristic));
+            putGattReference(event);
             eventCache.postEvent(event);
         }
 
+        @Override
+        public void onDescriptorWrite(
+                BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            GattOperationBatch batch = getActiveBatch();
+            if (batch != null) {
+                batch.onComplete(status, null);
+            }
+        }
+
         @Override
         public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
             SnippetEvent event = new SnippetEvent(callbackId, "onReliableWriteCompleted");
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
-            event.getData().putBundle("gatt", JsonSerializer.serializeBluetoothGatt(gatt));
+            putGattReference(event);
             eventCache.postEvent(event);
         }
 
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            GattConnection connection = connections.get(deviceAddress);
+            if (connection != null && status == BluetoothGatt.GATT_SUCCESS) {
+                connection.mtu = mtu;
+            }
             SnippetEvent event = new SnippetEvent(callbackId, "onMtuChanged");
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
             event.getData().putInt("mtu", mtu);
-            event.getData().putBundle("gatt", JsonSerializer.serializeBluetoothGatt(gatt));
+            putGattReference(event);
             eventCache.postEvent(event);
         }
     }
 
     @Override
     public void shutdown() {
-        if (bluetoothGattClient != null) {
-            bluetoothGattClient.close();
+        synchronized (connections) {
+            for (GattConnection connection : connections.values()) {
+                if (connection.gatt != null) {
+                    connection.gatt.close();
+                }
+            }
+            connections.clear();
         }
     }
 }
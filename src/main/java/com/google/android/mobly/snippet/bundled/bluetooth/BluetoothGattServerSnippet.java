@@ -25,14 +25,16 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 import android.os.Build.VERSION_CODES;
+import android.os.Bundle;
 import android.os.DeadObjectException;
 import android.os.SystemClock;
 import android.util.Base64;
 import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
-import com.google.android.mobly.snippet.bundled.utils.DataHolder;
+import com.google.android.mobly.snippet.bundled.utils.GattAttributeStore;
 import com.google.android.mobly.snippet.bundled.utils.JsonDeserializer;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
 import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
@@ -42,7 +44,15 @@ import com.google.android.mobly.snippet.rpc.AsyncRpc;
 import com.google.android.mobly.snippet.rpc.Rpc;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
 import com.google.android.mobly.snippet.util.Log;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -58,24 +68,90 @@ public class BluetoothGattServerSnippet implements Snippet {
         }
     }
 
+    // Delay before retrying a notification the stack rejected as busy.
+    private static final long BUSY_RETRY_DELAY_MS = 1;
+    // Time after which a notification that was never reported as sent counts as failed, once the
+    // stream is over its limits.
+    private static final long OUTSTANDING_NOTIFICATION_TIMEOUT_MS = 5000;
+
+    // Retries when opening the server, which give a stack that is not ready time to recover.
+    private static final int MAX_OPEN_SERVER_ATTEMPTS = 5;
+    private static final long OPEN_SERVER_RETRY_DELAY_MS = 1000;
+
+    // Bounds of the retries when adding a service.
+    private static final int MAX_SERVICE_ADD_ATTEMPTS = 5;
+    private static final long INITIAL_RETRY_DELAY_MS = 10;
+    private static final long MAX_RETRY_DELAY_MS = 1000;
+    private static final long SERVICE_REGISTRATION_TIMEOUT_SEC = 30;
+
     private final Context context;
     private final BluetoothManager bluetoothManager;
-    private final DataHolder dataHolder;
+    private final GattAttributeStore attributeStore;
     private final EventCache eventCache;
 
     private BluetoothGattServer bluetoothGattServer;
+    // The services being added by addServiceToGattServer, if any.
+    private volatile ServiceRegistration serviceRegistration;
+    // Devices connected to the server, keyed by address.
+    private final ConcurrentHashMap<String, BluetoothDevice> connectedDevices =
+            new ConcurrentHashMap<>();
+    // Notification streams keyed by the address of the device they notify.
+    private final ConcurrentHashMap<String, NotificationStream> notificationStreams =
+            new ConcurrentHashMap<>();
+    // Counts the bytes written by clients while a throughput measurement is running, or null.
+    private volatile ThroughputCounter throughputCounter;
+
+    /** Counts the bytes received in write requests. */
+    private static class ThroughputCounter {
+        private long bytesReceived = 0;
+        private int writeCount = 0;
+        private long firstWriteNanos = 0;
+        private long lastWriteNanos = 0;
+
+        synchronized void onWrite(int length) {
+            lastWriteNanos = SystemClock.elapsedRealtimeNanos();
+            if (writeCount == 0) {
+                firstWriteNanos = lastWriteNanos;
+            }
+            writeCount++;
+            bytesReceived += length;
+        }
+
+        synchronized Bundle toBundle() {
+            long elapsedNanos = lastWriteNanos - firstWriteNanos;
+            Bundle result = new Bundle();
+            result.putLong("BytesReceived", bytesReceived);
+            result.putInt("WriteCount", writeCount);
+            result.putLong("ElapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            result.putDouble(
+                    "BytesPerSecond", elapsedNanos == 0 ? 0 : bytesReceived * 1e9 / elapsedNanos);
+            return result;
+        }
+    }
 
     public BluetoothGattServerSnippet() {
         context = InstrumentationRegistry.getInstrumentation().getContext();
         bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
-        dataHolder = new DataHolder();
+        attributeStore = new GattAttributeStore();
         eventCache = EventCache.getInstance();
     }
 
+    /**
+     * Returns the connected device with the given address, or null.
+     *
+     * <p>Devices are looked up in a cache kept current by {@code onConnectionStateChange}. The
+     * connected devices are only queried on a miss, e.g. for a device connected before the server
+     * was started.
+     */
     private BluetoothDevice getDeviceByAddress(String address) {
+        BluetoothDevice cachedDevice = connectedDevices.get(address);
+        if (cachedDevice != null) {
+            return cachedDevice;
+        }
         List<BluetoothDevice> devices = bluetoothManager.getConnectedDevices(BluetoothProfile.GATT);
         for (BluetoothDevice device : devices) {
             if (device.getAddress().equals(address)) {
+                connectedDevices.put(address, device);
                 return device;
             }
         }
@@ -89,7 +165,7 @@ public class BluetoothGattServerSnippet implements Snippet {
         BluetoothGattServerCallback gattServerCallback =
                 new DefaultBluetoothGattServerCallback(callbackId);
         bluetoothGattServer = bluetoothManager.openGattServer(context, gattServerCallback);
-        addServiceToGattServer(services);
+        addServiceToGattServer(callbackId, services);
     }
 
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
@@ -100,24 +176,141 @@ public class BluetoothGattServerSnippet implements Snippet {
                 new DefaultBluetoothGattServerCallback(callbackId);
         boolean isGattServerStarted = false;
         int count = 0;
-        while (!isGattServerStarted && count < 5) {
+        while (!isGattServerStarted && count < MAX_OPEN_SERVER_ATTEMPTS) {
             bluetoothGattServer = bluetoothManager.openGattServer(context, gattServerCallback);
             if (bluetoothGattServer != null) {
-                addServiceToGattServer(services);
+                addServiceToGattServer(callbackId, services);
                 isGattServerStarted = true;
             } else {
-                SystemClock.sleep(1000);
+                SystemClock.sleep(OPEN_SERVER_RETRY_DELAY_MS);
                 count++;
             }
         }
     }
 
-    private void addServiceToGattServer(JSONArray services) throws JSONException {
+    /**
+     * Adds the services to the server one after another, and waits for them to be added.
+     *
+     * <p>The platform only allows one service to be pending, so each service is added from the
+     * {@code onServiceAdded} callback of the previous one. A service that fails to be added is
+     * retried with exponential backoff. Once all the services are processed, an
+     * "onServicesRegistered" event is posted with the following info:
+     *
+     * <pre>
+     *          "ServiceCount", int
+     *          "FailedCount", int, services that could not be added
+     *          "RetryCount", int
+     *          "RegistrationTimeMs", long
+     * </pre>
+     */
+    private void addServiceToGattServer(String callbackId, JSONArray services)
+            throws JSONException {
+        ArrayList<BluetoothGattService> bluetoothGattServices = new ArrayList<>();
         for (int i = 0; i < services.length(); i++) {
             JSONObject service = services.getJSONObject(i);
-            BluetoothGattService bluetoothGattService =
-                    JsonDeserializer.jsonToBluetoothGattService(dataHolder, service);
-            bluetoothGattServer.addService(bluetoothGattService);
+            bluetoothGattServices.add(
+                    JsonDeserializer.jsonToBluetoothGattService(attributeStore, service));
+        }
+        ServiceRegistration registration = new ServiceRegistration(bluetoothGattServices);
+        serviceRegistration = registration;
+        registration.addCurrent();
+        Bundle result = registration.await();
+        serviceRegistration = null;
+        SnippetEvent event = new SnippetEvent(callbackId, "onServicesRegistered");
+        event.getData().putAll(result);
+        eventCache.postEvent(event);
+    }
+
+    /** Returns the delay before the service add retry following the given number of failures. */
+    private static long getRetryDelayMs(int failedAttempts) {
+        return Math.min(INITIAL_RETRY_DELAY_MS << failedAttempts, MAX_RETRY_DELAY_MS);
+    }
+
+    /** Adds services one at a time, each from the callback of the previous one. */
+    private class ServiceRegistration {
+        private final List<BluetoothGattService> services;
+        private final ScheduledExecutorService retryExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long startNanos = SystemClock.elapsedRealtimeNanos();
+        private int index = 0;
+        private int failedAttempts = 0;
+        private int failedCount = 0;
+        private int retryCount = 0;
+
+        ServiceRegistration(List<BluetoothGattService> services) {
+            this.services = services;
+        }
+
+        synchronized void addCurrent() {
+            if (index >= services.size()) {
+                retryExecutor.shutdown();
+                done.countDown();
+                return;
+            }
+            if (!bluetoothGattServer.addService(services.get(index))) {
+                onAddFailed();
+            }
+        }
+
+        synchronized void onServiceAdded(int status, BluetoothGattService service) {
+            if (index >= services.size()
+                    || !services.get(index).getUuid().equals(service.getUuid())) {
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                index++;
+                failedAttempts = 0;
+                addCurrent();
+            } else {
+                onAddFailed();
+            }
+        }
+
+        Bundle await() {
+            try {
+                if (!done.await(SERVICE_REGISTRATION_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                    Log.e("Timed out registering the GATT services.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                retryExecutor.shutdownNow();
+                Bundle result = new Bundle();
+                result.putInt("ServiceCount", services.size());
+                // Services not processed before the timeout count as failed.
+                result.putInt("FailedCount", failedCount + services.size() - index);
+                result.putInt("RetryCount", retryCount);
+                result.putLong(
+                        "RegistrationTimeMs",
+                        TimeUnit.NANOSECONDS.toMillis(
+                                SystemClock.elapsedRealtimeNanos() - startNanos));
+                // Stop processing callbacks that arrive after the timeout.
+                index = services.size();
+                return result;
+            }
+        }
+
+        private void onAddFailed() {
+            failedAttempts++;
+            if (failedAttempts >= MAX_SERVICE_ADD_ATTEMPTS) {
+                Log.e("Failed to add service " + services.get(index).getUuid());
+                failedCount++;
+                index++;
+                failedAttempts = 0;
+                addCurrent();
+                return;
+            }
+            retryCount++;
+            try {
+                retryExecutor.schedule(
+                        this::addCurrent,
+                        getRetryDelayMs(failedAttempts - 1),
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The registration timed out.
+            }
         }
     }
 
@@ -128,6 +321,7 @@ public class BluetoothGattServerSnippet implements Snippet {
             throw new BluetoothGattServerSnippetException("BLE server is not initialized.");
         }
         bluetoothGattServer.close();
+        connectedDevices.clear();
     }
 
     @RpcMinSdk(VERSION_CODES.LOLLIPOP)
@@ -160,7 +354,15 @@ public class BluetoothGattServerSnippet implements Snippet {
         if (device == null) {
             throw new BluetoothGattServerSnippetException("Device not found: " + address);
         }
+        BluetoothGattCharacteristic characteristic =
+                getCharacteristic(serviceUuid, characteristicUuid);
+        byte[] value = Base64.decode(base64Value, Base64.NO_WRAP);
+        bluetoothGattServer.notifyCharacteristicChanged(device, characteristic, confirm, value);
+    }
 
+    private BluetoothGattCharacteristic getCharacteristic(
+            String serviceUuid, String characteristicUuid)
+            throws BluetoothGattServerSnippetException {
         BluetoothGattService service = bluetoothGattServer.getService(UUID.fromString(serviceUuid));
         if (service == null) {
             throw new BluetoothGattServerSnippetException("Service not found: " + serviceUuid);
@@ -171,8 +373,352 @@ public class BluetoothGattServerSnippet implements Snippet {
             throw new BluetoothGattServerSnippetException(
                     "Characteristic not found: " + characteristicUuid);
         }
-        byte[] value = Base64.decode(base64Value, Base64.NO_WRAP);
-        bluetoothGattServer.notifyCharacteristicChanged(device, characteristic, confirm, value);
+        return characteristic;
+    }
+
+    /**
+     * Starts streaming notifications of a characteristic to a connected device.
+     *
+     * <p>Each notification carries {@code payloadSize} bytes starting with its 4 byte big-endian
+     * sequence number, so the client can detect lost notifications. Only one notification is
+     * outstanding at a time: with a target rate, a notification that is due while the previous
+     * one has not been sent yet is skipped and counted as backpressured; without a target rate,
+     * the next notification is sent from {@code onNotificationSent}.
+     *
+     * <p>The stream stops once {@code maxCount} notifications have been sent or {@code
+     * durationMs} has elapsed, whichever comes first, and posts an "onNotificationStreamFinished"
+     * event with the same info as returned by {@link #bleStopNotificationStream}. A notification
+     * still not reported as sent 5s after that is counted as failed. The stream also stops when
+     * the device disconnects.
+     *
+     * @param callbackId
+     * @param address The address of the connected device to notify.
+     * @param serviceUuid The service of the characteristic.
+     * @param characteristicUuid The characteristic to notify.
+     * @param payloadSize The number of bytes per notification, at least 4.
+     * @param ratePerSecond The target number of notifications per second, or 0 to send as fast as
+     *     the stack allows.
+     * @param maxCount The number of notifications to send, or 0 for no limit.
+     * @param durationMs The duration of the stream, or 0 for no limit.
+     */
+    @TargetApi(VERSION_CODES.TIRAMISU)
+    @RpcMinSdk(VERSION_CODES.TIRAMISU)
+    @AsyncRpc(description = "Start streaming notifications of a characteristic to a device.")
+    public void bleStartNotificationStream(
+            String callbackId,
+            String address,
+            String serviceUuid,
+            String characteristicUuid,
+            Integer payloadSize,
+            Integer ratePerSecond,
+            Integer maxCount,
+            Integer durationMs)
+            throws BluetoothGattServerSnippetException {
+        if (bluetoothGattServer == null) {
+            throw new BluetoothGattServerSnippetException("BLE server is not initialized.");
+        }
+        if (payloadSize < 4 || ratePerSecond < 0 || maxCount < 0 || durationMs < 0) {
+            throw new BluetoothGattServerSnippetException(
+                    "Invalid notification stream parameters.");
+        }
+        BluetoothDevice device = getDeviceByAddress(address);
+        if (device == null) {
+            throw new BluetoothGattServerSnippetException("Device not found: " + address);
+        }
+        NotificationStream stream =
+                new NotificationStream(
+                        callbackId,
+                        device,
+                        getCharacteristic(serviceUuid, characteristicUuid),
+                        payloadSize,
+                        maxCount,
+                        durationMs);
+        if (notificationStreams.putIfAbsent(address, stream) != null) {
+            throw new BluetoothGattServerSnippetException(
+                    "A notification stream is already running for " + address);
+        }
+        stream.start(ratePerSecond);
+    }
+
+    /**
+     * Stops the notification stream to a device.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "SentCount", int, notifications reported sent by onNotificationSent
+     *          "FailedCount", int
+     *          "BackpressuredCount", int
+     *          "ElapsedMs", long
+     *          "NotificationsPerSecond", double
+     *          "MeanLatencyUs", long, from sending to onNotificationSent
+     *          "MaxLatencyUs", long
+     * </pre>
+     *
+     * @param address The address of the notified device.
+     */
+    @TargetApi(VERSION_CODES.TIRAMISU)
+    @RpcMinSdk(VERSION_CODES.TIRAMISU)
+    @Rpc(description = "Stop the notification stream to a device and return its statistics.")
+    public Bundle bleStopNotificationStream(String address)
+            throws BluetoothGattServerSnippetException, InterruptedException {
+        NotificationStream stream = notificationStreams.get(address);
+        if (stream == null) {
+            throw new BluetoothGattServerSnippetException(
+                    "No notification stream is running for " + address);
+        }
+        return stream.stop();
+    }
+
+    /** Sends notifications to one device from a dedicated thread. */
+    @TargetApi(VERSION_CODES.TIRAMISU)
+    private class NotificationStream {
+        private final String callbackId;
+        private final BluetoothDevice device;
+        private final BluetoothGattCharacteristic characteristic;
+        private final int payloadSize;
+        private final int maxCount;
+        private final long durationNanos;
+        private final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile Bundle result;
+
+        // The fields below are only accessed from the executor thread.
+        private boolean isRateLimited;
+        private long startNanos;
+        private int startedCount = 0;
+        private int sentCount = 0;
+        private int failedCount = 0;
+        private int backpressuredCount = 0;
+        private boolean isOutstanding = false;
+        private long outstandingSinceNanos;
+        private long latencySumUs = 0;
+        private long maxLatencyUs = 0;
+
+        NotificationStream(
+                String callbackId,
+                BluetoothDevice device,
+                BluetoothGattCharacteristic characteristic,
+                int payloadSize,
+                int maxCount,
+                int durationMs) {
+            this.callbackId = callbackId;
+            this.device = device;
+            this.characteristic = characteristic;
+            this.payloadSize = payloadSize;
+            this.maxCount = maxCount;
+            this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        }
+
+        void start(int ratePerSecond) {
+            isRateLimited = ratePerSecond > 0;
+            execute(
+                    () -> {
+                        startNanos = SystemClock.elapsedRealtimeNanos();
+                        if (isRateLimited) {
+                            executor.scheduleAtFixedRate(
+                                    this::onTick,
+                                    0,
+                                    TimeUnit.SECONDS.toMicros(1) / ratePerSecond,
+                                    TimeUnit.MICROSECONDS);
+                        } else {
+                            // Nothing ticks while a notification is outstanding, so check
+                            // periodically that it was not lost.
+                            executor.scheduleWithFixedDelay(
+                                    this::finishIfLimitReached,
+                                    OUTSTANDING_NOTIFICATION_TIMEOUT_MS,
+                                    OUTSTANDING_NOTIFICATION_TIMEOUT_MS,
+                                    TimeUnit.MILLISECONDS);
+                            sendNext();
+                        }
+                    });
+        }
+
+        /** Called from the binder thread when the stack has sent the outstanding notification. */
+        void onNotificationSent(int status) {
+            execute(
+                    () -> {
+                        if (!isOutstanding) {
+                            return;
+                        }
+                        isOutstanding = false;
+                        long latencyUs =
+                                TimeUnit.NANOSECONDS.toMicros(
+                                        SystemClock.elapsedRealtimeNanos()
+                                                - outstandingSinceNanos);
+                        latencySumUs += latencyUs;
+                        maxLatencyUs = Math.max(maxLatencyUs, latencyUs);
+                        if (status == BluetoothGatt.GATT_SUCCESS) {
+                            sentCount++;
+                        } else {
+                            failedCount++;
+                        }
+                        if (isDone()) {
+                            finish();
+                        } else if (!isRateLimited) {
+                            sendNext();
+                        }
+                    });
+        }
+
+        Bundle stop() throws InterruptedException {
+            execute(this::finish);
+            finished.await();
+            return result;
+        }
+
+        /** Called when the device disconnects, after which no notification can be sent. */
+        void onDisconnected() {
+            execute(
+                    () -> {
+                        abandonOutstanding();
+                        finish();
+                    });
+        }
+
+        private void onTick() {
+            if (isDone()) {
+                finishIfLimitReached();
+            } else if (isOutstanding) {
+                backpressuredCount++;
+            } else {
+                sendNext();
+            }
+        }
+
+        private void sendNext() {
+            if (result != null) {
+                // A busy retry scheduled before the stream finished.
+                return;
+            }
+            if (isDone()) {
+                finish();
+                return;
+            }
+            ByteBuffer value = ByteBuffer.allocate(payloadSize).putInt(startedCount);
+            outstandingSinceNanos = SystemClock.elapsedRealtimeNanos();
+            int status =
+                    bluetoothGattServer.notifyCharacteristicChanged(
+                            device, characteristic, false, value.array());
+            if (status == BluetoothStatusCodes.SUCCESS) {
+                startedCount++;
+                isOutstanding = true;
+            } else if (status == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
+                backpressuredCount++;
+                if (!isRateLimited) {
+                    executor.schedule(this::sendNext, BUSY_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+            } else {
+                Log.e("Failed to send notification with status " + status);
+                startedCount++;
+                failedCount++;
+                if (!isRateLimited) {
+                    executor.execute(this::sendNext);
+                }
+            }
+        }
+
+        /**
+         * Finishes the stream if it is over its limits, once the outstanding notification, if any,
+         * is sent or timed out.
+         */
+        private void finishIfLimitReached() {
+            if (!isDone()) {
+                return;
+            }
+            if (isOutstanding) {
+                long outstandingMs =
+                        TimeUnit.NANOSECONDS.toMillis(
+                                SystemClock.elapsedRealtimeNanos() - outstandingSinceNanos);
+                if (outstandingMs < OUTSTANDING_NOTIFICATION_TIMEOUT_MS) {
+                    return;
+                }
+                Log.w("Notification not reported as sent after " + outstandingMs + " ms.");
+                abandonOutstanding();
+            }
+            finish();
+        }
+
+        /** Counts the outstanding notification, if any, as failed. */
+        private void abandonOutstanding() {
+            if (isOutstanding) {
+                isOutstanding = false;
+                failedCount++;
+            }
+        }
+
+        private boolean isDone() {
+            return (maxCount > 0 && startedCount >= maxCount)
+                    || (durationNanos > 0
+                            && SystemClock.elapsedRealtimeNanos() - startNanos >= durationNanos);
+        }
+
+        private void finish() {
+            if (result != null) {
+                return;
+            }
+            long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+            int completedCount = sentCount + failedCount;
+            Bundle stats = new Bundle();
+            stats.putInt("SentCount", sentCount);
+            stats.putInt("FailedCount", failedCount);
+            stats.putInt("BackpressuredCount", backpressuredCount);
+            stats.putLong("ElapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            stats.putDouble(
+                    "NotificationsPerSecond",
+                    elapsedNanos == 0 ? 0 : sentCount * 1e9 / elapsedNanos);
+            stats.putLong(
+                    "MeanLatencyUs", completedCount == 0 ? 0 : latencySumUs / completedCount);
+            stats.putLong("MaxLatencyUs", maxLatencyUs);
+            result = stats;
+            notificationStreams.remove(device.getAddress(), this);
+            executor.shutdown();
+            SnippetEvent event = new SnippetEvent(callbackId, "onNotificationStreamFinished");
+            event.getData().putAll(stats);
+            eventCache.postEvent(event);
+            finished.countDown();
+        }
+
+        private void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The stream already finished.
+            }
+        }
+    }
+
+    /**
+     * Starts counting the bytes written to the server, e.g. by {@link
+     * BluetoothGattClientSnippet#bleRunThroughputBenchmark} on the client.
+     *
+     * <p>No "onCharacteristicWriteRequest" event is posted while counting, so the events do not
+     * slow down the measured traffic.
+     */
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Start counting the bytes written to the BLE server.")
+    public void bleStartThroughputCounter() {
+        throughputCounter = new ThroughputCounter();
+    }
+
+    /**
+     * Stops counting the bytes written to the server.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "BytesReceived", long
+     *          "WriteCount", int
+     *          "ElapsedMs", long, between the first and the last write
+     *          "BytesPerSecond", double
+     * </pre>
+     */
+    @RpcMinSdk(VERSION_CODES.LOLLIPOP)
+    @Rpc(description = "Stop counting the bytes written to the BLE server and return the counts.")
+    public Bundle bleStopThroughputCounter() throws BluetoothGattServerSnippetException {
+        ThroughputCounter counter = throughputCounter;
+        if (counter == null) {
+            throw new BluetoothGattServerSnippetException("Throughput counter is not started.");
+        }
+        throughputCounter = null;
+        return counter.toBundle();
     }
 
     private class DefaultBluetoothGattServerCallback extends BluetoothGattServerCallback {
@@ -184,6 +730,16 @@ public class BluetoothGattServerSnippet implements Snippet {
 
         @Override
         public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                connectedDevices.put(device.getAddress(), device);
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                connectedDevices.remove(device.getAddress());
+                attributeStore.clearPreparedWrites(device.getAddress());
+                NotificationStream stream = notificationStreams.get(device.getAddress());
+                if (stream != null) {
+                    stream.onDisconnected();
+                }
+            }
             SnippetEvent event = new SnippetEvent(callbackId, "onConnectionStateChange");
             event.getData().putBundle("device", JsonSerializer.serializeBluetoothDevice(device));
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
@@ -194,6 +750,10 @@ public class BluetoothGattServerSnippet implements Snippet {
         @Override
         public void onServiceAdded(int status, BluetoothGattService service) {
             Log.d("Bluetooth Gatt Server service added with status " + status);
+            ServiceRegistration registration = serviceRegistration;
+            if (registration != null) {
+                registration.onServiceAdded(status, service);
+            }
             SnippetEvent event = new SnippetEvent(callbackId, "onServiceAdded");
             event.getData().putString("status", MbsEnums.BLE_STATUS_TYPE.getString(status));
             event.getData()
@@ -209,16 +769,15 @@ public class BluetoothGattServerSnippet implements Snippet {
                 int offset,
                 BluetoothGattCharacteristic characteristic) {
             Log.d("Bluetooth Gatt Server received a read request");
-            if (dataHolder.get(characteristic) != null) {
+            // Long values are read with several requests, each from the offset of the previous
+            // one plus the bytes it returned.
+            byte[] value = attributeStore.read(characteristic, offset);
+            if (value != null) {
                 bluetoothGattServer.sendResponse(
-                        device,
-                        requestId,
-                        BluetoothGatt.GATT_SUCCESS,
-                        offset,
-                        Base64.decode(dataHolder.get(characteristic), Base64.NO_WRAP));
+                        device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
             } else {
                 bluetoothGattServer.sendResponse(
-                        device, requestId, BluetoothGatt.GATT_SUCCESS, offset, null);
+                        device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset, null);
             }
         }
 
@@ -231,9 +790,27 @@ public class BluetoothGattServerSnippet implements Snippet {
                 boolean responseNeeded,
                 int offset,
                 byte[] value) {
+            ThroughputCounter counter = throughputCounter;
+            if (counter != null) {
+                counter.onWrite(value.length);
+                if (responseNeeded) {
+                    bluetoothGattServer.sendResponse(
+                            device, requestId, BluetoothGatt.GATT_SUCCESS, offset, null);
+                }
+                return;
+            }
             Log.d("Bluetooth Gatt Server received a write request");
-            bluetoothGattServer.sendResponse(
-                    device, requestId, BluetoothGatt.GATT_SUCCESS, offset, null);
+            int status = BluetoothGatt.GATT_SUCCESS;
+            if (preparedWrite) {
+                attributeStore.prepareWrite(device.getAddress(), characteristic, offset, value);
+            } else if (!attributeStore.write(characteristic, offset, value)) {
+                status = BluetoothGatt.GATT_INVALID_OFFSET;
+            }
+            if (responseNeeded) {
+                // Prepared writes are acknowledged by echoing the value back.
+                bluetoothGattServer.sendResponse(
+                        device, requestId, status, offset, preparedWrite ? value : null);
+            }
             SnippetEvent event = new SnippetEvent(callbackId, "onCharacteristicWriteRequest");
             event.getData().putString("Data", Base64.encodeToString(value, Base64.NO_WRAP));
             eventCache.postEvent(event);
@@ -242,8 +819,19 @@ public class BluetoothGattServerSnippet implements Snippet {
         @Override
         public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
             Log.d("Bluetooth Gatt Server received an execute write request");
-            bluetoothGattServer.sendResponse(
-                    device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
+            int status =
+                    attributeStore.executeWrites(device.getAddress(), execute)
+                            ? BluetoothGatt.GATT_SUCCESS
+                            : BluetoothGatt.GATT_INVALID_OFFSET;
+            bluetoothGattServer.sendResponse(device, requestId, status, 0, null);
+        }
+
+        @Override
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            NotificationStream stream = notificationStreams.get(device.getAddress());
+            if (stream != null) {
+                stream.onNotificationSent(status);
+            }
         }
 
         @Override
@@ -256,5 +844,9 @@ public class BluetoothGattServerSnippet implements Snippet {
     }
 
     @Override
-    public void shutdown() {}
+    public void shutdown() {
+        for (NotificationStream stream : notificationStreams.values()) {
+            stream.execute(stream::finish);
+        }
+    }
 }
@@ -2,22 +2,37 @@ package com.google.android.mobly.snippet.bundled.bluetooth.profiles;
 
 import android.annotation.TargetApi;
 import android.bluetooth.BluetoothA2dp;
-import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothCodecConfig;
+import android.bluetooth.BluetoothCodecStatus;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Bundle;
+import androidx.annotation.Nullable;
 import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.BluetoothAdapterSnippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.PairingBroadcastReceiver;
+import com.google.android.mobly.snippet.bundled.bluetooth.profiles.ProfileProxyManager.ProfileProxyException;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
+import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
+import com.google.android.mobly.snippet.bundled.utils.RingBuffer;
+import com.google.android.mobly.snippet.bundled.utils.StreamingSessionStats;
 import com.google.android.mobly.snippet.bundled.utils.Utils;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
+import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class BluetoothA2dpSnippet implements Snippet {
     public static class BluetoothA2dpSnippetException extends Exception {
@@ -28,34 +43,26 @@ public class BluetoothA2dpSnippet implements Snippet {
         }
     }
 
+    // Maximum number of samples kept by a session sampler.
+    private static final int SESSION_SAMPLE_CAPACITY = 10000;
+
     private Context mContext;
-    private static boolean sIsA2dpProfileReady = false;
-    private static BluetoothA2dp sA2dpProfile;
+    private final ProfileConnectionTracker mConnectionTracker;
+    // Samplers of btA2dpStartSessionSampler, by upper case device address.
+    private final ConcurrentHashMap<String, SessionSampler> mSessionSamplers =
+            new ConcurrentHashMap<>();
     private final JsonSerializer mJsonSerializer = new JsonSerializer();
 
-    public BluetoothA2dpSnippet() throws BluetoothA2dpSnippetException {
+    public BluetoothA2dpSnippet() {
         mContext = InstrumentationRegistry.getInstrumentation().getContext();
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        boolean isProxyConnectionStarted = bluetoothAdapter.getProfileProxy(
-                mContext, new A2dpServiceListener(), BluetoothProfile.A2DP);
-        if (!isProxyConnectionStarted) {
-            throw new BluetoothA2dpSnippetException(
-                "Failed to start proxy connection for A2DP profile.");
-        }
-        Utils.waitUntil(() -> sIsA2dpProfileReady, 60);
+        mConnectionTracker = ProfileConnectionTracker.getInstance(mContext);
+        // Connects in the background, RPCs wait for the proxy in getA2dpProfile().
+        ProfileProxyManager.getInstance().request(mContext, BluetoothProfile.A2DP);
     }
 
-    private static class A2dpServiceListener implements BluetoothProfile.ServiceListener {
-        @Override
-        public void onServiceConnected(int var1, BluetoothProfile profile) {
-            sA2dpProfile = (BluetoothA2dp) profile;
-            sIsA2dpProfileReady = true;
-        }
-
-        @Override
-        public void onServiceDisconnected(int var1) {
-            sIsA2dpProfileReady = false;
-        }
+    private BluetoothA2dp getA2dpProfile() throws ProfileProxyException {
+        return ProfileProxyManager.getInstance()
+                .getProxy(mContext, BluetoothProfile.A2DP, BluetoothA2dp.class);
     }
 
     @TargetApi(Build.VERSION_CODES.KITKAT)
@@ -65,13 +72,18 @@ public class BluetoothA2dpSnippet implements Snippet {
                     "Connects to a paired or discovered device with A2DP profile."
                             + "If a device has been discovered but not paired, this will pair it.")
     public void btA2dpConnect(String deviceAddress) throws Throwable {
+        BluetoothA2dp a2dpProfile = getA2dpProfile();
         BluetoothDevice device = BluetoothAdapterSnippet.getKnownDeviceByAddress(deviceAddress);
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST);
         mContext.registerReceiver(new PairingBroadcastReceiver(mContext), filter);
-        Utils.invokeByReflection(sA2dpProfile, "connect", device);
-        if (!Utils.waitUntil(
-                () -> sA2dpProfile.getConnectionState(device) == BluetoothA2dp.STATE_CONNECTED,
-                120)) {
+        Utils.invokeByReflection(a2dpProfile, "connect", device);
+        long elapsedMs =
+                mConnectionTracker.waitForState(
+                        a2dpProfile,
+                        device,
+                        BluetoothA2dp.STATE_CONNECTED,
+                        120);
+        if (elapsedMs == EventWaiter.TIMED_OUT) {
             throw new BluetoothA2dpSnippetException(
                     "Failed to connect to device "
                             + device.getName()
@@ -79,15 +91,20 @@ public class BluetoothA2dpSnippet implements Snippet {
                             + device.getAddress()
                             + " with A2DP profile within 2min.");
         }
+        Log.d("Connected to " + deviceAddress + " with A2DP in " + elapsedMs + " ms.");
     }
 
     @Rpc(description = "Disconnects a device from A2DP profile.")
     public void btA2dpDisconnect(String deviceAddress) throws Throwable {
+        BluetoothA2dp a2dpProfile = getA2dpProfile();
         BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
-        Utils.invokeByReflection(sA2dpProfile, "disconnect", device);
-        if (!Utils.waitUntil(
-                () -> sA2dpProfile.getConnectionState(device) == BluetoothA2dp.STATE_DISCONNECTED,
-                120)) {
+        Utils.invokeByReflection(a2dpProfile, "disconnect", device);
+        if (mConnectionTracker.waitForState(
+                        a2dpProfile,
+                        device,
+                        BluetoothA2dp.STATE_DISCONNECTED,
+                        120)
+                == EventWaiter.TIMED_OUT) {
             throw new BluetoothA2dpSnippetException(
                     "Failed to disconnect device "
                             + device.getName()
@@ -98,19 +115,237 @@ public class BluetoothA2dpSnippet implements Snippet {
     }
 
     @Rpc(description = "Gets all the devices currently connected via A2DP profile.")
-    public ArrayList<Bundle> btA2dpGetConnectedDevices() {
-        return mJsonSerializer.serializeBluetoothDeviceList(sA2dpProfile.getConnectedDevices());
+    public ArrayList<Bundle> btA2dpGetConnectedDevices() throws ProfileProxyException {
+        return mJsonSerializer.serializeBluetoothDeviceList(getA2dpProfile().getConnectedDevices());
     }
 
     @Rpc(description = "Checks if a device is streaming audio via A2DP profile.")
     public boolean btIsA2dpPlaying(String deviceAddress) throws Throwable {
         BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
-        return sA2dpProfile.isA2dpPlaying(device);
+        return getA2dpProfile().isA2dpPlaying(device);
     }
 
-    private BluetoothDevice getConnectedBluetoothDevice(String deviceAddress)
+    /**
+     * Starts sampling the streaming session of a connected device at a fixed interval.
+     *
+     * <p>Each sample records the connection state, whether audio is playing and, from Android T,
+     * the codec config. The last 10000 samples are kept, see {@link #btA2dpGetSessionSamples},
+     * and are aggregated into a summary, see {@link #btA2dpGetSessionSummary}. Starting a sampler
+     * for a device replaces its previous sampler.
+     *
+     * @param deviceAddress The address of the device.
+     * @param intervalMs The interval between samples.
+     */
+    @Rpc(description = "Starts sampling the A2DP streaming session of a device.")
+    public void btA2dpStartSessionSampler(
+            String deviceAddress, @RpcDefault("200") Integer intervalMs) throws Throwable {
+        if (intervalMs <= 0) {
+            throw new BluetoothA2dpSnippetException(
+                    "Sampling interval must be positive, got " + intervalMs);
+        }
+        BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
+        SessionSampler sampler = new SessionSampler(getA2dpProfile(), device);
+        SessionSampler previous =
+                mSessionSamplers.put(device.getAddress().toUpperCase(Locale.US), sampler);
+        if (previous != null) {
+            previous.stop();
+        }
+        sampler.start(intervalMs);
+    }
+
+    /**
+     * Gets the summary of the streaming session of a device.
+     *
+     * @return A {@link Bundle} with "Address", "DurationMs", "SampleCount", "PlayingTimeMs",
+     *     "StallCount", the number of times audio stopped playing after it started,
+     *     "StalledTimeMs", "DisconnectCount", "CodecSwitchCount" and "Codec", the last known
+     *     codec config if any.
+     */
+    @Rpc(description = "Gets the summary of the A2DP streaming session of a device.")
+    public Bundle btA2dpGetSessionSummary(String deviceAddress)
             throws BluetoothA2dpSnippetException {
-        for (BluetoothDevice device : sA2dpProfile.getConnectedDevices()) {
+        return getSessionSampler(deviceAddress).getSummary();
+    }
+
+    /**
+     * Removes and returns the oldest samples of the streaming session of a device.
+     *
+     * @param maxSamples The maximum number of samples to return.
+     * @return A list of {@link Bundle}, oldest first, each with "TimeMs", "ConnectionState",
+     *     "Playing" and "Codec" if known. The first sample also has "DroppedCount", the number of
+     *     samples dropped because the buffer was full since the last call.
+     */
+    @Rpc(description = "Gets the oldest samples of the A2DP streaming session of a device.")
+    public ArrayList<Bundle> btA2dpGetSessionSamples(
+            String deviceAddress, @RpcDefault("1000") Integer maxSamples)
+            throws BluetoothA2dpSnippetException {
+        if (maxSamples < 0) {
+            throw new BluetoothA2dpSnippetException(
+                    "Maximum number of samples must not be negative, got " + maxSamples);
+        }
+        return getSessionSampler(deviceAddress).drainSamples(maxSamples);
+    }
+
+    /**
+     * Stops sampling the streaming session of a device.
+     *
+     * @return The final summary, see {@link #btA2dpGetSessionSummary}.
+     */
+    @Rpc(description = "Stops sampling the A2DP streaming session of a device.")
+    public Bundle btA2dpStopSessionSampler(String deviceAddress)
+            throws BluetoothA2dpSnippetException {
+        SessionSampler sampler = getSessionSampler(deviceAddress);
+        mSessionSamplers.remove(deviceAddress.toUpperCase(Locale.US), sampler);
+        sampler.stop();
+        return sampler.getSummary();
+    }
+
+    private SessionSampler getSessionSampler(String deviceAddress)
+            throws BluetoothA2dpSnippetException {
+        SessionSampler sampler = mSessionSamplers.get(deviceAddress.toUpperCase(Locale.US));
+        if (sampler == null) {
+            throw new BluetoothA2dpSnippetException(
+                    "No session sampler is running for device " + deviceAddress);
+        }
+        return sampler;
+    }
+
+    /** One sample of a streaming session. */
+    private static class SessionSample {
+        final long timeMs;
+        final int connectionState;
+        final boolean playing;
+        @Nullable final String codec;
+
+        SessionSample(long timeMs, int connectionState, boolean playing, @Nullable String codec) {
+            this.timeMs = timeMs;
+            this.connectionState = connectionState;
+            this.playing = playing;
+            this.codec = codec;
+        }
+    }
+
+    /** Samples the streaming state of a device on a background thread. */
+    private static class SessionSampler {
+        private final BluetoothA2dp mA2dpProfile;
+        private final BluetoothDevice mDevice;
+        private final ScheduledExecutorService mExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        private final RingBuffer<SessionSample> mSamples =
+                new RingBuffer<>(SESSION_SAMPLE_CAPACITY);
+        // Guarded by this.
+        private final StreamingSessionStats mStats = new StreamingSessionStats();
+        private long mStartTimeMs;
+        private long mLastSampleTimeMs;
+
+        SessionSampler(BluetoothA2dp a2dpProfile, BluetoothDevice device) {
+            mA2dpProfile = a2dpProfile;
+            mDevice = device;
+        }
+
+        void start(int intervalMs) {
+            mStartTimeMs = System.currentTimeMillis();
+            mExecutor.scheduleAtFixedRate(
+                    () -> {
+                        // An exception would cancel all the following samples.
+                        try {
+                            sample();
+                        } catch (RuntimeException e) {
+                            Log.e("Failed to sample the A2DP session of " + mDevice, e);
+                        }
+                    },
+                    0,
+                    intervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            mExecutor.shutdownNow();
+        }
+
+        private void sample() {
+            int connectionState = mA2dpProfile.getConnectionState(mDevice);
+            boolean playing =
+                    connectionState == BluetoothProfile.STATE_CONNECTED
+                            && mA2dpProfile.isA2dpPlaying(mDevice);
+            String codec =
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU ? describeCodec() : null;
+            long timeMs = System.currentTimeMillis();
+            mSamples.add(new SessionSample(timeMs, connectionState, playing, codec));
+            synchronized (this) {
+                mStats.add(
+                        timeMs,
+                        connectionState == BluetoothProfile.STATE_CONNECTED,
+                        playing,
+                        codec);
+                mLastSampleTimeMs = timeMs;
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.TIRAMISU)
+        @Nullable
+        private String describeCodec() {
+            BluetoothCodecStatus status;
+            try {
+                status = mA2dpProfile.getCodecStatus(mDevice);
+            } catch (SecurityException e) {
+                return null;
+            }
+            BluetoothCodecConfig config = status == null ? null : status.getCodecConfig();
+            if (config == null) {
+                return null;
+            }
+            return String.format(
+                    Locale.US,
+                    "CodecType=%d,SampleRate=%d,BitsPerSample=%d,ChannelMode=%d",
+                    config.getCodecType(),
+                    config.getSampleRate(),
+                    config.getBitsPerSample(),
+                    config.getChannelMode());
+        }
+
+        synchronized Bundle getSummary() {
+            Bundle summary = new Bundle();
+            summary.putString("Address", mDevice.getAddress());
+            summary.putLong("DurationMs", mLastSampleTimeMs - mStartTimeMs);
+            summary.putLong("SampleCount", mStats.getSampleCount());
+            summary.putLong("PlayingTimeMs", mStats.getPlayingTimeMs());
+            summary.putLong("StallCount", mStats.getStallCount());
+            summary.putLong("StalledTimeMs", mStats.getStalledTimeMs());
+            summary.putLong("DisconnectCount", mStats.getDisconnectCount());
+            summary.putLong("CodecSwitchCount", mStats.getCodecSwitchCount());
+            if (mStats.getLastCodec() != null) {
+                summary.putString("Codec", mStats.getLastCodec());
+            }
+            return summary;
+        }
+
+        ArrayList<Bundle> drainSamples(int maxSamples) {
+            long droppedCount = mSamples.takeDroppedCount();
+            List<SessionSample> samples = mSamples.drain(maxSamples);
+            ArrayList<Bundle> results = new ArrayList<>(samples.size());
+            for (SessionSample sample : samples) {
+                Bundle result = new Bundle();
+                result.putLong("TimeMs", sample.timeMs);
+                result.putString(
+                        "ConnectionState",
+                        MbsEnums.BLE_CONNECT_STATUS.getString(sample.connectionState));
+                result.putBoolean("Playing", sample.playing);
+                if (sample.codec != null) {
+                    result.putString("Codec", sample.codec);
+                }
+                results.add(result);
+            }
+            if (!results.isEmpty()) {
+                results.get(0).putLong("DroppedCount", droppedCount);
+            }
+            return results;
+        }
+    }
+
+    private BluetoothDevice getConnectedBluetoothDevice(String deviceAddress)
+            throws BluetoothA2dpSnippetException, ProfileProxyException {
+        for (BluetoothDevice device : getA2dpProfile().getConnectedDevices()) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
                 return device;
             }
@@ -120,5 +355,10 @@ public class BluetoothA2dpSnippet implements Snippet {
     }
 
     @Override
-    public void shutdown() {}
+    public void shutdown() {
+        for (SessionSampler sampler : mSessionSamplers.values()) {
+            sampler.stop();
+        }
+        mSessionSamplers.clear();
+    }
 }
@@ -21,7 +21,10 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Bundle;
@@ -29,12 +32,19 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.BluetoothAdapterSnippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.PairingBroadcastReceiver;
+import com.google.android.mobly.snippet.bundled.bluetooth.profiles.ProfileProxyManager.ProfileProxyException;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
 import com.google.android.mobly.snippet.bundled.utils.Utils;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
+import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Custom exception class for handling exceptions within the BluetoothHeadsetSnippet.
@@ -47,6 +57,8 @@ public class BluetoothHeadsetSnippet implements Snippet {
     private static final BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 
     private final Context mContext = InstrumentationRegistry.getInstrumentation().getContext();
+    private final ProfileConnectionTracker mConnectionTracker =
+        ProfileConnectionTracker.getInstance(mContext);
     public static class BluetoothHeadsetSnippetException extends Exception {
         private static final long serialVersionUID = 1;
 
@@ -60,37 +72,19 @@ public class BluetoothHeadsetSnippet implements Snippet {
         }
     }
 
-    private BluetoothHeadset mBluetoothHeadset;
-    private static final int HEADSET = 1;
-
-    private final BluetoothProfile.ServiceListener mProfileListener = new BluetoothProfile.ServiceListener() {
-        @Override
-        public void onServiceConnected(int var1, BluetoothProfile profile) {
-            if (var1 == HEADSET) {
-                mBluetoothHeadset = (BluetoothHeadset)profile;
-            }
-        }
-        @Override
-        public void onServiceDisconnected(int var1) {
-            if (var1 == HEADSET) {
-                mBluetoothHeadset = null;
-            }
-        }
-    };
-
     public BluetoothHeadsetSnippet() throws Throwable {
         IntentFilter filter = new IntentFilter(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
         filter.addAction(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED);
-        boolean isProxyConnectionStarted = mBluetoothAdapter.getProfileProxy(
-            mContext, mProfileListener, BluetoothProfile.HEADSET);
-        if (!isProxyConnectionStarted) {
-            throw new BluetoothHeadsetSnippetException(
-                "Failed to start proxy connection for HEADSET profile.");
-        }
-        Utils.waitUntil(() -> mBluetoothHeadset != null, 60);
+        // Connects in the background, RPCs wait for the proxy in getHeadsetProfile().
+        ProfileProxyManager.getInstance().request(mContext, BluetoothProfile.HEADSET);
         mContext.registerReceiver(new PairingBroadcastReceiver(mContext), filter);
     }
 
+    private BluetoothHeadset getHeadsetProfile() throws ProfileProxyException {
+        return ProfileProxyManager.getInstance()
+            .getProxy(mContext, BluetoothProfile.HEADSET, BluetoothHeadset.class);
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
     @RpcMinSdk(Build.VERSION_CODES.KITKAT)
     @Rpc(
@@ -98,13 +92,18 @@ public class BluetoothHeadsetSnippet implements Snippet {
             "Connects to a paired or discovered device with HEADSET profile."
                 + "If a device has been discovered but not paired, this will pair it.")
     public void btHfpConnect(String deviceAddress) throws Throwable {
+        BluetoothHeadset bluetoothHeadset = getHeadsetProfile();
         BluetoothDevice device = BluetoothAdapterSnippet.getKnownDeviceByAddress(deviceAddress);
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST);
         mContext.registerReceiver(new PairingBroadcastReceiver(mContext), filter);
-        Utils.invokeByReflection(mBluetoothHeadset, "connect", device);
-        if (!Utils.waitUntil(
-            () -> mBluetoothHeadset.getConnectionState(device) == BluetoothHeadset.STATE_CONNECTED,
-            120)) {
+        Utils.invokeByReflection(bluetoothHeadset, "connect", device);
+        long elapsedMs =
+            mConnectionTracker.waitForState(
+                bluetoothHeadset,
+                device,
+                BluetoothHeadset.STATE_CONNECTED,
+                120);
+        if (elapsedMs == EventWaiter.TIMED_OUT) {
             throw new BluetoothHeadsetSnippetException(
                 "Failed to connect to device "
                     + device.getName()
@@ -112,15 +111,20 @@ public class BluetoothHeadsetSnippet implements Snippet {
                     + device.getAddress()
                     + " with HEADSET profile within 2min.");
         }
+        Log.d("Connected to " + deviceAddress + " with HEADSET in " + elapsedMs + " ms.");
     }
 
     @Rpc(description = "Disconnects a device from HEADSET profile.")
     public void btHfpDisconnect(String deviceAddress) throws Throwable {
+        BluetoothHeadset bluetoothHeadset = getHeadsetProfile();
         BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
-        Utils.invokeByReflection(mBluetoothHeadset, "disconnect", device);
-        if (!Utils.waitUntil(
-            () -> mBluetoothHeadset.getConnectionState(device) == BluetoothHeadset.STATE_DISCONNECTED,
-            120)) {
+        Utils.invokeByReflection(bluetoothHeadset, "disconnect", device);
+        if (mConnectionTracker.waitForState(
+                bluetoothHeadset,
+                device,
+                BluetoothHeadset.STATE_DISCONNECTED,
+                120)
+            == EventWaiter.TIMED_OUT) {
             throw new BluetoothHeadsetSnippetException(
                 "Failed to disconnect device "
                     + device.getName()
@@ -138,11 +142,12 @@ public class BluetoothHeadsetSnippet implements Snippet {
      * @throws BluetoothHeadsetSnippetException If no device with the specified name is connected via HEADSET.
      */
     @Rpc(description = "Returns connection state.")
-    public int btHfpGetConnectionState(String deviceAddress) throws BluetoothHeadsetSnippetException {
+    public int btHfpGetConnectionState(String deviceAddress)
+        throws BluetoothHeadsetSnippetException, ProfileProxyException {
         Set<BluetoothDevice> pairedDevices = mBluetoothAdapter.getBondedDevices();
         for (BluetoothDevice device : pairedDevices) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
-                return mBluetoothHeadset.getConnectionState(device);
+                return getHeadsetProfile().getConnectionState(device);
             }
         }
         throw new BluetoothHeadsetSnippetException("No device with name " + deviceAddress +" is connected via HEADSET.");
@@ -157,11 +162,12 @@ public class BluetoothHeadsetSnippet implements Snippet {
      *         occurs during the startVoiceRecognition operation.
      */
     @Rpc(description = "Starts voice recognition.")
-    public boolean btHfpStartVoiceRecognition(String deviceAddress) throws BluetoothHeadsetSnippetException{
+    public boolean btHfpStartVoiceRecognition(String deviceAddress)
+        throws BluetoothHeadsetSnippetException, ProfileProxyException {
         Set<BluetoothDevice> pairedDevices = mBluetoothAdapter.getBondedDevices();
         for (BluetoothDevice device : pairedDevices) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
-                return mBluetoothHeadset.startVoiceRecognition(device);
+                return getHeadsetProfile().startVoiceRecognition(device);
             }
         }
         throw new BluetoothHeadsetSnippetException("No device with name " + deviceAddress +" is connected via HEADSET.");
@@ -177,34 +183,224 @@ public class BluetoothHeadsetSnippet implements Snippet {
      *         occurs during the startVoiceRecognition operation.
      */
     @Rpc(description = "Stops voice recognition.")
-    public boolean btHfpStopVoiceRecognition(String deviceAddress) throws BluetoothHeadsetSnippetException {
+    public boolean btHfpStopVoiceRecognition(String deviceAddress)
+        throws BluetoothHeadsetSnippetException, ProfileProxyException {
         Set<BluetoothDevice> pairedDevices = mBluetoothAdapter.getBondedDevices();
         for (BluetoothDevice device : pairedDevices) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
-                return mBluetoothHeadset.stopVoiceRecognition(device);
+                return getHeadsetProfile().stopVoiceRecognition(device);
             }
         }
         throw new BluetoothHeadsetSnippetException("No device with name " + deviceAddress +" is connected via HEADSET.");
     }
 
     @Rpc(description = "Checks whether the headset supports voice recognition;")
-    public boolean btHfpIsVoiceRecognitionSupported(String deviceAddress) throws BluetoothHeadsetSnippetException {
+    public boolean btHfpIsVoiceRecognitionSupported(String deviceAddress)
+        throws BluetoothHeadsetSnippetException, ProfileProxyException {
         Set<BluetoothDevice> pairedDevices = mBluetoothAdapter.getBondedDevices();
         for (BluetoothDevice device : pairedDevices) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
-                return mBluetoothHeadset.isVoiceRecognitionSupported(device);
+                return getHeadsetProfile().isVoiceRecognitionSupported(device);
             }
         }
         throw new BluetoothHeadsetSnippetException("No device with name " + deviceAddress +" is connected via HEADSET.");
     }
     @Rpc(description = "Gets all the devices currently connected via HFP profile.")
-    public ArrayList<Bundle> btHfpGetConnectedDevices() {
-        return mJsonSerializer.serializeBluetoothDeviceList(mBluetoothHeadset.getConnectedDevices());
+    public ArrayList<Bundle> btHfpGetConnectedDevices() throws ProfileProxyException {
+        return mJsonSerializer.serializeBluetoothDeviceList(
+            getHeadsetProfile().getConnectedDevices());
+    }
+
+    /**
+     * Measures how long SCO audio takes to come up and go down, over repeated cycles.
+     *
+     * <p>Each cycle starts SCO audio, waits for the {@link BluetoothHeadset#STATE_AUDIO_CONNECTED}
+     * broadcast, stops it and waits for {@link BluetoothHeadset#STATE_AUDIO_DISCONNECTED}. The
+     * latencies are measured from the start or stop call to the time the broadcast is received,
+     * and all the cycles run on the device without any round trip to the host.
+     *
+     * @param deviceAddress The address of a device connected via HEADSET.
+     * @param cycles The number of cycles to run, at least 1.
+     * @param method "VOICE_RECOGNITION" to use startVoiceRecognition and stopVoiceRecognition, or
+     *     "CONNECT_AUDIO" to use connectAudio and disconnectAudio.
+     * @param intervalMs The time to wait between the end of a cycle and the start of the next one.
+     * @param timeoutSec The time to wait for each audio state change.
+     * @return A {@link Bundle} with "SuccessCount", "Cycles", a list of {@link Bundle} with
+     *     "Success", "ConnectLatencyMs", "DisconnectLatencyMs" and "Error" on failure, and the
+     *     distribution of the connect latencies of the successful cycles: "ConnectLatencyMinMs",
+     *     "ConnectLatencyMeanMs", "ConnectLatencyP50Ms", "ConnectLatencyP90Ms" and
+     *     "ConnectLatencyMaxMs".
+     */
+    @Rpc(description = "Measures the SCO audio setup latency over repeated cycles.")
+    public Bundle btHfpMeasureScoLatency(
+        String deviceAddress,
+        @RpcDefault("10") Integer cycles,
+        @RpcDefault("VOICE_RECOGNITION") String method,
+        @RpcDefault("1000") Integer intervalMs,
+        @RpcDefault("10") Integer timeoutSec)
+        throws Throwable {
+        if (cycles <= 0) {
+            throw new BluetoothHeadsetSnippetException("Cycles must be positive, got " + cycles);
+        }
+        boolean useVoiceRecognition;
+        if (method.equals("VOICE_RECOGNITION")) {
+            useVoiceRecognition = true;
+        } else if (method.equals("CONNECT_AUDIO")) {
+            useVoiceRecognition = false;
+        } else {
+            throw new BluetoothHeadsetSnippetException("Unknown SCO audio method: " + method);
+        }
+        BluetoothHeadset bluetoothHeadset = getHeadsetProfile();
+        BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
+        if (bluetoothHeadset.isAudioConnected(device)) {
+            throw new BluetoothHeadsetSnippetException(
+                "SCO audio is already connected to device " + deviceAddress);
+        }
+        ArrayList<Bundle> results = new ArrayList<>();
+        List<Long> connectLatenciesMs = new ArrayList<>();
+        AudioStateReceiver receiver = new AudioStateReceiver(device.getAddress());
+        mContext.registerReceiver(
+            receiver, new IntentFilter(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED));
+        try {
+            for (int i = 0; i < cycles; i++) {
+                if (i > 0) {
+                    Thread.sleep(intervalMs);
+                }
+                Bundle result = new Bundle();
+                results.add(result);
+                long startNanos = System.nanoTime();
+                if (!setScoAudio(bluetoothHeadset, device, useVoiceRecognition, true)) {
+                    result.putBoolean("Success", false);
+                    result.putString("Error", "Failed to start SCO audio.");
+                    continue;
+                }
+                long connectedNanos =
+                    receiver.waitForState(BluetoothHeadset.STATE_AUDIO_CONNECTED, timeoutSec);
+                if (connectedNanos == EventWaiter.TIMED_OUT) {
+                    // Still try to stop it so the next cycle starts from a clean state.
+                    setScoAudio(bluetoothHeadset, device, useVoiceRecognition, false);
+                    receiver.waitForState(BluetoothHeadset.STATE_AUDIO_DISCONNECTED, timeoutSec);
+                    result.putBoolean("Success", false);
+                    result.putString("Error", "SCO audio did not connect.");
+                    continue;
+                }
+                long connectLatencyMs = TimeUnit.NANOSECONDS.toMillis(connectedNanos - startNanos);
+                result.putLong("ConnectLatencyMs", connectLatencyMs);
+                startNanos = System.nanoTime();
+                if (!setScoAudio(bluetoothHeadset, device, useVoiceRecognition, false)) {
+                    result.putBoolean("Success", false);
+                    result.putString("Error", "Failed to stop SCO audio.");
+                    break;
+                }
+                long disconnectedNanos =
+                    receiver.waitForState(BluetoothHeadset.STATE_AUDIO_DISCONNECTED, timeoutSec);
+                if (disconnectedNanos == EventWaiter.TIMED_OUT) {
+                    result.putBoolean("Success", false);
+                    result.putString("Error", "SCO audio did not disconnect.");
+                    break;
+                }
+                result.putLong(
+                    "DisconnectLatencyMs",
+                    TimeUnit.NANOSECONDS.toMillis(disconnectedNanos - startNanos));
+                result.putBoolean("Success", true);
+                connectLatenciesMs.add(connectLatencyMs);
+            }
+        } finally {
+            mContext.unregisterReceiver(receiver);
+        }
+        Bundle summary = new Bundle();
+        summary.putInt("SuccessCount", connectLatenciesMs.size());
+        summary.putParcelableArrayList("Cycles", results);
+        if (!connectLatenciesMs.isEmpty()) {
+            Collections.sort(connectLatenciesMs);
+            long sum = 0;
+            for (long latencyMs : connectLatenciesMs) {
+                sum += latencyMs;
+            }
+            summary.putLong("ConnectLatencyMinMs", connectLatenciesMs.get(0));
+            summary.putDouble("ConnectLatencyMeanMs", (double) sum / connectLatenciesMs.size());
+            summary.putLong("ConnectLatencyP50Ms", getPercentile(connectLatenciesMs, 50));
+            summary.putLong("ConnectLatencyP90Ms", getPercentile(connectLatenciesMs, 90));
+            summary.putLong(
+                "ConnectLatencyMaxMs", connectLatenciesMs.get(connectLatenciesMs.size() - 1));
+        }
+        return summary;
+    }
+
+    /** Starts or stops SCO audio with the given method, returns whether the call succeeded. */
+    private static boolean setScoAudio(
+        BluetoothHeadset bluetoothHeadset,
+        BluetoothDevice device,
+        boolean useVoiceRecognition,
+        boolean connect)
+        throws Throwable {
+        if (useVoiceRecognition) {
+            return connect
+                ? bluetoothHeadset.startVoiceRecognition(device)
+                : bluetoothHeadset.stopVoiceRecognition(device);
+        }
+        // Returns a boolean before Android T, and a BluetoothStatusCodes value from T.
+        String methodName = connect ? "connectAudio" : "disconnectAudio";
+        Object result = Utils.invokeByReflection(bluetoothHeadset, methodName);
+        return result instanceof Boolean
+            ? (Boolean) result
+            : ((Integer) result) == BluetoothStatusCodes.SUCCESS;
+    }
+
+    /** Returns the value at the percentile of a sorted list, see {@link Utils#getNearestRank}. */
+    private static long getPercentile(List<Long> sortedValues, int percentile) {
+        return sortedValues.get((int) Utils.getNearestRank(percentile, sortedValues.size()) - 1);
+    }
+
+    /** Records the time at which the SCO audio state of a device last changed. */
+    private static class AudioStateReceiver extends BroadcastReceiver {
+        private final String mAddress;
+        private final EventWaiter mWaiter = new EventWaiter();
+        // Guarded by this.
+        private int mState = BluetoothHeadset.STATE_AUDIO_DISCONNECTED;
+        private long mStateTimeNanos = 0;
+
+        AudioStateReceiver(String address) {
+            mAddress = address;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            long timeNanos = System.nanoTime();
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device == null || !device.getAddress().equalsIgnoreCase(mAddress)) {
+                return;
+            }
+            synchronized (this) {
+                mState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                mStateTimeNanos = timeNanos;
+            }
+            mWaiter.signal();
+        }
+
+        /**
+         * Waits until the audio state is the given one.
+         *
+         * @return The {@link System#nanoTime()} at which the state was received, or {@link
+         *     EventWaiter#TIMED_OUT}.
+         */
+        long waitForState(int state, int timeoutSec) {
+            if (mWaiter.waitUntil(() -> getState() == state, timeoutSec) == EventWaiter.TIMED_OUT) {
+                return EventWaiter.TIMED_OUT;
+            }
+            synchronized (this) {
+                return mStateTimeNanos;
+            }
+        }
+
+        private synchronized int getState() {
+            return mState;
+        }
     }
 
     private BluetoothDevice getConnectedBluetoothDevice(String deviceAddress)
-        throws BluetoothHeadsetSnippetException {
-        for (BluetoothDevice device : mBluetoothHeadset.getConnectedDevices()) {
+        throws BluetoothHeadsetSnippetException, ProfileProxyException {
+        for (BluetoothDevice device : getHeadsetProfile().getConnectedDevices()) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
                 return device;
             }
@@ -1,7 +1,6 @@
 package com.google.android.mobly.snippet.bundled.bluetooth.profiles;
 
 import android.annotation.TargetApi;
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHearingAid;
 import android.bluetooth.BluetoothProfile;
@@ -13,10 +12,13 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.BluetoothAdapterSnippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.PairingBroadcastReceiver;
+import com.google.android.mobly.snippet.bundled.bluetooth.profiles.ProfileProxyManager.ProfileProxyException;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
 import com.google.android.mobly.snippet.bundled.utils.Utils;
 import com.google.android.mobly.snippet.rpc.Rpc;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
+import com.google.android.mobly.snippet.util.Log;
 import com.google.common.base.Ascii;
 import java.util.ArrayList;
 
@@ -32,81 +34,76 @@ public class BluetoothHearingAidSnippet implements Snippet {
     private static final int TIMEOUT_SEC = 60;
 
     private final Context context;
-    private static boolean isHearingAidProfileReady = false;
-    private static BluetoothHearingAid hearingAidProfile;
+    private final ProfileConnectionTracker connectionTracker;
     private final JsonSerializer jsonSerializer = new JsonSerializer();
 
     @TargetApi(Build.VERSION_CODES.Q)
-    public BluetoothHearingAidSnippet() throws BluetoothHearingAidSnippetException {
+    public BluetoothHearingAidSnippet() {
         context = InstrumentationRegistry.getInstrumentation().getContext();
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        boolean isProxyConnectionStarted = bluetoothAdapter.getProfileProxy(
-                context, new HearingAidServiceListener(), BluetoothProfile.HEARING_AID);
-        if (!isProxyConnectionStarted) {
-            throw new BluetoothHearingAidSnippetException(
-                "Failed to start proxy connection for HEARING AID profile.");
-        }
-        Utils.waitUntil(() -> isHearingAidProfileReady, TIMEOUT_SEC);
+        connectionTracker = ProfileConnectionTracker.getInstance(context);
+        // Connects in the background, RPCs wait for the proxy in getHearingAidProfile().
+        ProfileProxyManager.getInstance().request(context, BluetoothProfile.HEARING_AID);
     }
 
     @TargetApi(Build.VERSION_CODES.Q)
-    private static class HearingAidServiceListener implements BluetoothProfile.ServiceListener {
-        @Override
-        public void onServiceConnected(int var1, BluetoothProfile profile) {
-            hearingAidProfile = (BluetoothHearingAid) profile;
-            isHearingAidProfileReady = true;
-        }
-
-        @Override
-        public void onServiceDisconnected(int var1) {
-            isHearingAidProfileReady = false;
-        }
+    private BluetoothHearingAid getHearingAidProfile() throws ProfileProxyException {
+        return ProfileProxyManager.getInstance()
+                .getProxy(context, BluetoothProfile.HEARING_AID, BluetoothHearingAid.class);
     }
 
     @TargetApi(Build.VERSION_CODES.Q)
     @RpcMinSdk(Build.VERSION_CODES.Q)
     @Rpc(description = "Connects to a paired or discovered device with HA profile.")
     public void btHearingAidConnect(String deviceAddress) throws Throwable {
+        BluetoothHearingAid hearingAidProfile = getHearingAidProfile();
         BluetoothDevice device = BluetoothAdapterSnippet.getKnownDeviceByAddress(deviceAddress);
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST);
         context.registerReceiver(new PairingBroadcastReceiver(context), filter);
         Utils.invokeByReflection(hearingAidProfile, "connect", device);
-        if (!Utils.waitUntil(
-                () ->
-                        hearingAidProfile.getConnectionState(device)
-                                == BluetoothHearingAid.STATE_CONNECTED,
-                TIMEOUT_SEC)) {
+        long elapsedMs =
+                connectionTracker.waitForState(
+                        hearingAidProfile,
+                        device,
+                        BluetoothHearingAid.STATE_CONNECTED,
+                        TIMEOUT_SEC);
+        if (elapsedMs == EventWaiter.TIMED_OUT) {
             throw new BluetoothHearingAidSnippetException(
                     String.format(
-                            "Failed to connect to device %s|%s with HA profile within %d sec.",
+                            "Failed to connect to device %s|%s with HA profile within %d"
+                                    + " sec.",
                             device.getName(), device.getAddress(), TIMEOUT_SEC));
         }
+        Log.d("Connected to " + deviceAddress + " with HA in " + elapsedMs + " ms.");
     }
 
     @Rpc(description = "Disconnects a device from HA profile.")
     public void btHearingAidDisconnect(String deviceAddress) throws Throwable {
+        BluetoothHearingAid hearingAidProfile = getHearingAidProfile();
         BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
         Utils.invokeByReflection(hearingAidProfile, "disconnect", device);
-        if (!Utils.waitUntil(
-                () ->
-                        hearingAidProfile.getConnectionState(device)
-                                == BluetoothHearingAid.STATE_DISCONNECTED,
-                TIMEOUT_SEC)) {
+        if (connectionTracker.waitForState(
+                        hearingAidProfile,
+                        device,
+                        BluetoothHearingAid.STATE_DISCONNECTED,
+                        TIMEOUT_SEC)
+                == EventWaiter.TIMED_OUT) {
             throw new BluetoothHearingAidSnippetException(
                     String.format(
-                            "Failed to disconnect to device %s|%s with HA profile within %d sec.",
+                            "Failed to disconnect to device %s|%s with HA profile within %d"
+                                    + " sec.",
                             device.getName(), device.getAddress(), TIMEOUT_SEC));
         }
     }
 
     @Rpc(description = "Gets all the devices currently connected via HA profile.")
-    public ArrayList<Bundle> btHearingAidGetConnectedDevices() {
-        return jsonSerializer.serializeBluetoothDeviceList(hearingAidProfile.getConnectedDevices());
+    public ArrayList<Bundle> btHearingAidGetConnectedDevices() throws ProfileProxyException {
+        return jsonSerializer.serializeBluetoothDeviceList(
+                getHearingAidProfile().getConnectedDevices());
     }
 
-    private static BluetoothDevice getConnectedBluetoothDevice(String deviceAddress)
-            throws BluetoothHearingAidSnippetException {
-        for (BluetoothDevice device : hearingAidProfile.getConnectedDevices()) {
+    private BluetoothDevice getConnectedBluetoothDevice(String deviceAddress)
+            throws BluetoothHearingAidSnippetException, ProfileProxyException {
+        for (BluetoothDevice device : getHearingAidProfile().getConnectedDevices()) {
             if (Ascii.equalsIgnoreCase(device.getAddress(), deviceAddress)) {
                 return device;
             }
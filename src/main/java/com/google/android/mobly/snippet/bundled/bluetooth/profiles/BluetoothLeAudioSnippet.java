@@ -29,11 +29,22 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.BluetoothAdapterSnippet;
 import com.google.android.mobly.snippet.bundled.bluetooth.PairingBroadcastReceiver;
+import com.google.android.mobly.snippet.bundled.bluetooth.profiles.ProfileProxyManager.ProfileProxyException;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
 import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
 import com.google.android.mobly.snippet.bundled.utils.Utils;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
 import com.google.android.mobly.snippet.rpc.RpcMinSdk;
+import com.google.android.mobly.snippet.util.Log;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
 
 /** Snippet class exposing Bluetooth LE Audio profile. */
 public class BluetoothLeAudioSnippet implements Snippet {
@@ -51,20 +62,20 @@ public class BluetoothLeAudioSnippet implements Snippet {
     }
 
     private final Context mContext;
-    private static boolean sIsLeAudioProfileReady = false;
-    private static BluetoothLeAudio sLeAudioProfile;
+    private final ProfileConnectionTracker mConnectionTracker;
     private final JsonSerializer mJsonSerializer = new JsonSerializer();
 
-    public BluetoothLeAudioSnippet() throws BluetoothLeAudioSnippetException {
+    public BluetoothLeAudioSnippet() {
         mContext = InstrumentationRegistry.getInstrumentation().getContext();
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        boolean isProxyConnectionStarted = bluetoothAdapter.getProfileProxy(
-                mContext, new LeAudioServiceListener(), BluetoothProfile.LE_AUDIO);
-        if (!isProxyConnectionStarted) {
-            throw new BluetoothLeAudioSnippetException(
-                "Failed to start proxy connection for LE AUDIO profile.");
-        }
-        Utils.waitUntil(() -> sIsLeAudioProfileReady, 60);
+        mConnectionTracker = ProfileConnectionTracker.getInstance(mContext);
+        // Connects in the background, RPCs wait for the proxy in getLeAudioProfile().
+        ProfileProxyManager.getInstance().request(mContext, BluetoothProfile.LE_AUDIO);
+    }
+
+    @TargetApi(Build.VERSION_CODES.TIRAMISU)
+    private BluetoothLeAudio getLeAudioProfile() throws ProfileProxyException {
+        return ProfileProxyManager.getInstance()
+            .getProxy(mContext, BluetoothProfile.LE_AUDIO, BluetoothLeAudio.class);
     }
 
     @TargetApi(Build.VERSION_CODES.TIRAMISU)
@@ -74,13 +85,18 @@ public class BluetoothLeAudioSnippet implements Snippet {
             "Connects to a paired or discovered device with LE Audio profile."
                 + "If a device has been discovered but not paired, this will pair it.")
     public void btLeAudioConnect(String deviceAddress) throws Throwable {
+        BluetoothLeAudio leAudioProfile = getLeAudioProfile();
         BluetoothDevice device = BluetoothAdapterSnippet.getKnownDeviceByAddress(deviceAddress);
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST);
         mContext.registerReceiver(new PairingBroadcastReceiver(mContext), filter);
-        Utils.invokeByReflection(sLeAudioProfile, "connect", device);
-        if (!Utils.waitUntil(
-            () -> sLeAudioProfile.getConnectionState(device) == BluetoothProfile.STATE_CONNECTED,
-            120)) {
+        Utils.invokeByReflection(leAudioProfile, "connect", device);
+        long elapsedMs =
+            mConnectionTracker.waitForState(
+                leAudioProfile,
+                device,
+                BluetoothProfile.STATE_CONNECTED,
+                120);
+        if (elapsedMs == EventWaiter.TIMED_OUT) {
             throw new BluetoothLeAudioSnippetException(
                 "Failed to connect to device "
                     + device.getName()
@@ -88,17 +104,131 @@ public class BluetoothLeAudioSnippet implements Snippet {
                     + device.getAddress()
                     + " with LE Audio profile within 2min.");
         }
+        Log.d("Connected to " + deviceAddress + " with LE Audio in " + elapsedMs + " ms.");
+    }
+
+    /**
+     * Connects all the members of LE Audio groups at once, and measures when they are ready.
+     *
+     * <p>Connections to all the members are started together, then a single wait on the shared
+     * {@link ProfileConnectionTracker} ends as soon as the last member is connected. Members that
+     * are already connected are ready at once.
+     *
+     * @param deviceAddresses The addresses of paired or discovered devices to connect.
+     * @param includeGroupMembers Whether to also connect the paired devices that are in the same
+     *     coordinated set (CSIP group) as one of the given devices.
+     * @param timeoutSec The time to wait for all the members to be connected.
+     * @return A {@link Bundle} with "Success", whether all the members are connected,
+     *     "GroupReadyTimeMs", the time from the start until the last member was connected or -1,
+     *     and "Members", a list of {@link Bundle} with "Address", "GroupId", "Connected" and
+     *     "ReadyTimeMs", the time from the start until the member was first seen connected, or -1
+     *     if unknown.
+     */
+    @TargetApi(Build.VERSION_CODES.TIRAMISU)
+    @RpcMinSdk(Build.VERSION_CODES.TIRAMISU)
+    @Rpc(description = "Connects all the members of LE Audio groups at once.")
+    public Bundle btLeAudioConnectGroup(
+        JSONArray deviceAddresses,
+        @RpcDefault("true") Boolean includeGroupMembers,
+        @RpcDefault("120") Integer timeoutSec)
+        throws Throwable {
+        BluetoothLeAudio leAudioProfile = getLeAudioProfile();
+        // Members by upper case address, in the order they were given.
+        Map<String, BluetoothDevice> members = new LinkedHashMap<>();
+        for (int i = 0; i < deviceAddresses.length(); i++) {
+            BluetoothDevice device =
+                BluetoothAdapterSnippet.getKnownDeviceByAddress(deviceAddresses.getString(i));
+            members.put(device.getAddress().toUpperCase(Locale.US), device);
+        }
+        if (includeGroupMembers) {
+            Set<Integer> groupIds = new HashSet<>();
+            for (BluetoothDevice device : members.values()) {
+                int groupId = leAudioProfile.getGroupId(device);
+                if (groupId != BluetoothLeAudio.GROUP_ID_INVALID) {
+                    groupIds.add(groupId);
+                }
+            }
+            for (BluetoothDevice device : BluetoothAdapter.getDefaultAdapter().getBondedDevices()) {
+                if (groupIds.contains(leAudioProfile.getGroupId(device))) {
+                    members.putIfAbsent(device.getAddress().toUpperCase(Locale.US), device);
+                }
+            }
+        }
+        long startTimeMs = System.currentTimeMillis();
+        // The time from the start until each member was first seen connected, by address.
+        Map<String, Long> readyTimesMs = new HashMap<>();
+        for (BluetoothDevice device : members.values()) {
+            if (leAudioProfile.getConnectionState(device) == BluetoothProfile.STATE_CONNECTED) {
+                readyTimesMs.put(device.getAddress(), 0L);
+                continue;
+            }
+            if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
+                // Each receiver confirms a single pairing request.
+                mContext.registerReceiver(
+                    new PairingBroadcastReceiver(mContext),
+                    new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST));
+            }
+            Utils.invokeByReflection(leAudioProfile, "connect", device);
+        }
+        mConnectionTracker.waitUntil(
+            () -> {
+                for (BluetoothDevice device : members.values()) {
+                    if (!readyTimesMs.containsKey(device.getAddress())
+                        && leAudioProfile.getConnectionState(device)
+                            == BluetoothProfile.STATE_CONNECTED) {
+                        readyTimesMs.put(
+                            device.getAddress(), System.currentTimeMillis() - startTimeMs);
+                    }
+                }
+                return readyTimesMs.size() == members.size();
+            },
+            timeoutSec);
+        ArrayList<Bundle> memberResults = new ArrayList<>();
+        boolean allConnected = true;
+        long groupReadyTimeMs = 0;
+        for (BluetoothDevice device : members.values()) {
+            boolean connected =
+                leAudioProfile.getConnectionState(device) == BluetoothProfile.STATE_CONNECTED;
+            Long readyTimeMs = readyTimesMs.get(device.getAddress());
+            if (readyTimeMs == null) {
+                // Not seen connected during the wait, so the time is unknown.
+                readyTimeMs = -1L;
+            } else {
+                groupReadyTimeMs = Math.max(groupReadyTimeMs, readyTimeMs);
+            }
+            allConnected &= connected;
+            Bundle memberResult = new Bundle();
+            memberResult.putString("Address", device.getAddress());
+            memberResult.putInt("GroupId", leAudioProfile.getGroupId(device));
+            memberResult.putBoolean("Connected", connected);
+            memberResult.putLong("ReadyTimeMs", readyTimeMs);
+            memberResults.add(memberResult);
+        }
+        Bundle result = new Bundle();
+        result.putBoolean("Success", allConnected);
+        result.putLong("GroupReadyTimeMs", allConnected ? groupReadyTimeMs : -1);
+        result.putParcelableArrayList("Members", memberResults);
+        Log.d(
+            "LE Audio group of "
+                + members.size()
+                + " members "
+                + (allConnected ? "connected in " + groupReadyTimeMs + " ms." : "timed out."));
+        return result;
     }
 
     @TargetApi(Build.VERSION_CODES.TIRAMISU)
     @RpcMinSdk(Build.VERSION_CODES.TIRAMISU)
     @Rpc(description = "Disconnects a device from LE Audio profile.")
     public void btLeAudioDisconnect(String deviceAddress) throws Throwable {
+        BluetoothLeAudio leAudioProfile = getLeAudioProfile();
         BluetoothDevice device = getConnectedBluetoothDevice(deviceAddress);
-        Utils.invokeByReflection(sLeAudioProfile, "disconnect", device);
-        if (!Utils.waitUntil(
-            () -> sLeAudioProfile.getConnectionState(device) == BluetoothProfile.STATE_DISCONNECTED,
-            120)) {
+        Utils.invokeByReflection(leAudioProfile, "disconnect", device);
+        if (mConnectionTracker.waitForState(
+                leAudioProfile,
+                device,
+                BluetoothProfile.STATE_DISCONNECTED,
+                120)
+            == EventWaiter.TIMED_OUT) {
             throw new BluetoothLeAudioSnippetException(
                 "Failed to disconnect device "
                     + device.getName()
@@ -108,33 +238,18 @@ public class BluetoothLeAudioSnippet implements Snippet {
         }
     }
 
-    /** Service Listener for {@link BluetoothLeAudio}. */
-    private static class LeAudioServiceListener implements BluetoothProfile.ServiceListener {
-
-        @TargetApi(Build.VERSION_CODES.S)
-        @Override
-        public void onServiceConnected(int profileType, BluetoothProfile profile) {
-            sLeAudioProfile = (BluetoothLeAudio) profile;
-            sIsLeAudioProfileReady = true;
-        }
-
-        @Override
-        public void onServiceDisconnected(int profileType) {
-            sIsLeAudioProfileReady = false;
-        }
-    }
-
     @TargetApi(Build.VERSION_CODES.TIRAMISU)
     @RpcMinSdk(Build.VERSION_CODES.TIRAMISU)
     @Rpc(description = "Gets all the devices currently connected via LE Audio profile.")
-    public ArrayList<Bundle> btLeAudioGetConnectedDevices() {
-        return mJsonSerializer.serializeBluetoothDeviceList(sLeAudioProfile.getConnectedDevices());
+    public ArrayList<Bundle> btLeAudioGetConnectedDevices() throws ProfileProxyException {
+        return mJsonSerializer.serializeBluetoothDeviceList(
+            getLeAudioProfile().getConnectedDevices());
     }
 
     @TargetApi(Build.VERSION_CODES.TIRAMISU)
     private BluetoothDevice getConnectedBluetoothDevice(String deviceAddress)
-        throws BluetoothLeAudioSnippetException {
-        for (BluetoothDevice device : sLeAudioProfile.getConnectedDevices()) {
+        throws BluetoothLeAudioSnippetException, ProfileProxyException {
+        for (BluetoothDevice device : getLeAudioProfile().getConnectedDevices()) {
             if (device.getAddress().equalsIgnoreCase(deviceAddress)) {
                 return device;
             }
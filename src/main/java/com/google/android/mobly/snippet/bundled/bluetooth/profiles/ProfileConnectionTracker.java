@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.bluetooth.profiles;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothHeadset;
+import android.bluetooth.BluetoothHearingAid;
+import android.bluetooth.BluetoothLeAudio;
+import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
+import com.google.android.mobly.snippet.bundled.utils.MbsEnums;
+import com.google.android.mobly.snippet.bundled.utils.Utils;
+import com.google.android.mobly.snippet.event.EventCache;
+import com.google.android.mobly.snippet.event.SnippetEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Tracks the connection state of every device on the A2DP, Headset, Hearing Aid and LE Audio
+ * profiles, from their connection state change broadcasts.
+ *
+ * <p>The tracker is registered once for the process lifetime. Waiters are woken up as soon as a
+ * broadcast arrives, and then confirm the state with the profile proxy, so a missed broadcast,
+ * e.g. during a profile restart, only delays the wait instead of ending it on a stale state.
+ *
+ * <p>The transitions of a device from one stable state, connected or disconnected, to the next are
+ * kept as a timeline. When the device reaches a stable state, an "onProfileConnectionStateChanged"
+ * event is posted to every callback added with {@link #addCallback(String)}, with:
+ *
+ * <pre>
+ *   "Profile", String, the name of the profile, e.g. "A2DP"
+ *   "Device", String, the address of the device
+ *   "State", String, the name of the stable state, e.g. "STATE_CONNECTED"
+ *   "LatencyMs", long, the time from the first transition of the timeline to the last
+ *   "Timeline", list of Bundle, each with "PreviousState", "State" and "TimeMs"
+ * </pre>
+ */
+public class ProfileConnectionTracker {
+
+    private static ProfileConnectionTracker sInstance;
+
+    // Maps the connection state change actions to their profiles.
+    private static final Map<String, Integer> ACTION_PROFILES = new HashMap<>();
+
+    static {
+        ACTION_PROFILES.put(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.A2DP);
+        ACTION_PROFILES.put(
+                BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.HEADSET);
+        ACTION_PROFILES.put(
+                BluetoothHearingAid.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.HEARING_AID);
+        ACTION_PROFILES.put(
+                BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED,
+                BluetoothProfile.LE_AUDIO);
+    }
+
+    // Signaled whenever a connection state changes.
+    private final EventWaiter mWaiter = new EventWaiter();
+    private final Set<String> mCallbackIds = new CopyOnWriteArraySet<>();
+    // The following are keyed by profile and upper case address, see getKey(). Guarded by this.
+    private final Map<String, ArrayList<Bundle>> mTimelines = new HashMap<>();
+
+    private final BroadcastReceiver mReceiver =
+            new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    Integer profile = ACTION_PROFILES.get(intent.getAction());
+                    BluetoothDevice device =
+                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    if (profile == null || device == null) {
+                        return;
+                    }
+                    onStateChanged(
+                            profile,
+                            device.getAddress(),
+                            intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1),
+                            intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1),
+                            System.currentTimeMillis());
+                }
+            };
+
+    private ProfileConnectionTracker() {}
+
+    /**
+     * Returns the tracker, registering its receiver on the first call.
+     *
+     * @param context The context used to register the receiver.
+     */
+    public static synchronized ProfileConnectionTracker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProfileConnectionTracker();
+            IntentFilter filter = new IntentFilter();
+            for (String action : ACTION_PROFILES.keySet()) {
+                filter.addAction(action);
+            }
+            context.registerReceiver(sInstance.mReceiver, filter);
+        }
+        return sInstance;
+    }
+
+    /** Starts posting the connection state events to the given callback. */
+    public void addCallback(String callbackId) {
+        mCallbackIds.add(callbackId);
+    }
+
+    /** Stops posting the connection state events to the given callback. */
+    public void removeCallback(String callbackId) {
+        mCallbackIds.remove(callbackId);
+    }
+
+    /**
+     * Waits until a device reaches a connection state on a profile.
+     *
+     * @param proxy The proxy of the profile.
+     * @param device The device to wait for.
+     * @param state One of the {@code BluetoothProfile.STATE_*} constants.
+     * @param timeoutSec The number of seconds to wait for before giving up.
+     * @return The number of milliseconds it took, or {@link EventWaiter#TIMED_OUT}.
+     */
+    public long waitForState(
+            BluetoothProfile proxy, BluetoothDevice device, int state, int timeoutSec) {
+        return waitForState(proxy, Collections.singletonList(device), state, timeoutSec);
+    }
+
+    /**
+     * Waits until all the given devices reach a connection state on a profile.
+     *
+     * @see #waitForState(BluetoothProfile, BluetoothDevice, int, int)
+     */
+    public long waitForState(
+            BluetoothProfile proxy, Collection<BluetoothDevice> devices, int state, int timeoutSec) {
+        return mWaiter.waitUntil(
+                () -> {
+                    for (BluetoothDevice device : devices) {
+                        if (proxy.getConnectionState(device) != state) {
+                            return false;
+                        }
+                    }
+                    return true;
+                },
+                timeoutSec);
+    }
+
+    /**
+     * Waits until a condition on connection states is met, re-checking it whenever a connection
+     * state broadcast arrives.
+     *
+     * @param predicate The condition, which should read the states from the profile proxies.
+     * @param timeoutSec The number of seconds to wait for before giving up.
+     * @return The number of milliseconds it took, or {@link EventWaiter#TIMED_OUT}.
+     */
+    public long waitUntil(Utils.Predicate predicate, int timeoutSec) {
+        return mWaiter.waitUntil(predicate, timeoutSec);
+    }
+
+    private void onStateChanged(
+            int profile, String address, int previousState, int state, long timeMs) {
+        String key = getKey(profile, address);
+        Bundle transition = new Bundle();
+        transition.putString("PreviousState", MbsEnums.BLE_CONNECT_STATUS.getString(previousState));
+        transition.putString("State", MbsEnums.BLE_CONNECT_STATUS.getString(state));
+        transition.putLong("TimeMs", timeMs);
+        ArrayList<Bundle> finishedTimeline = null;
+        synchronized (this) {
+            ArrayList<Bundle> timeline = mTimelines.get(key);
+            if (timeline == null) {
+                timeline = new ArrayList<>();
+                mTimelines.put(key, timeline);
+            }
+            timeline.add(transition);
+            if (state == BluetoothProfile.STATE_CONNECTED
+                    || state == BluetoothProfile.STATE_DISCONNECTED) {
+                finishedTimeline = mTimelines.remove(key);
+            }
+        }
+        mWaiter.signal();
+        if (finishedTimeline == null || mCallbackIds.isEmpty()) {
+            return;
+        }
+        long latencyMs = timeMs - finishedTimeline.get(0).getLong("TimeMs");
+        for (String callbackId : mCallbackIds) {
+            SnippetEvent event = new SnippetEvent(callbackId, "onProfileConnectionStateChanged");
+            Bundle data = event.getData();
+            data.putString("Profile", MbsEnums.BLUETOOTH_PROFILE.getString(profile));
+            data.putString("Device", address);
+            data.putString("State", MbsEnums.BLE_CONNECT_STATUS.getString(state));
+            data.putLong("LatencyMs", latencyMs);
+            data.putParcelableArrayList("Timeline", finishedTimeline);
+            EventCache.getInstance().postEvent(event);
+        }
+    }
+
+    private static String getKey(int profile, String address) {
+        return profile + "/" + address.toUpperCase(Locale.US);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.bluetooth.profiles;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
+import com.google.android.mobly.snippet.util.Log;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the Bluetooth profile proxies shared by the profile snippets for the process lifetime.
+ *
+ * <p>Snippets call {@link #request} when they are created, which starts connecting to the proxy
+ * without waiting, so the proxies of all the profiles connect in parallel and loading the snippets
+ * does not block. RPCs call {@link #getProxy}, which only waits if the proxy is not connected yet.
+ * When a proxy is disconnected, e.g. because the profile service restarted, it is closed and
+ * requested again on the next {@link #getProxy} call.
+ */
+public class ProfileProxyManager {
+
+    /** Thrown when the proxy of a profile cannot be obtained. */
+    public static class ProfileProxyException extends Exception {
+        private static final long serialVersionUID = 1;
+
+        ProfileProxyException(String msg) {
+            super(msg);
+        }
+    }
+
+    // Time to wait for a proxy to connect.
+    private static final int PROXY_CONNECTION_TIMEOUT_SEC = 60;
+
+    private static final ProfileProxyManager sInstance = new ProfileProxyManager();
+
+    private final BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    // Signaled whenever a proxy connects.
+    private final EventWaiter mWaiter = new EventWaiter();
+    // Connected proxies by profile. Guarded by this.
+    private final Map<Integer, BluetoothProfile> mProxies = new HashMap<>();
+    // Profiles whose proxy is connecting. Guarded by this.
+    private final Set<Integer> mPendingProfiles = new HashSet<>();
+
+    private final BluetoothProfile.ServiceListener mServiceListener =
+            new BluetoothProfile.ServiceListener() {
+                @Override
+                public void onServiceConnected(int profile, BluetoothProfile proxy) {
+                    boolean isDuplicate;
+                    synchronized (ProfileProxyManager.this) {
+                        // A request that timed out may connect after it was requested again.
+                        isDuplicate = mProxies.putIfAbsent(profile, proxy) != null;
+                        mPendingProfiles.remove(profile);
+                    }
+                    if (isDuplicate) {
+                        mBluetoothAdapter.closeProfileProxy(profile, proxy);
+                        return;
+                    }
+                    Log.d("Connected to the proxy of Bluetooth profile " + profile);
+                    mWaiter.signal();
+                }
+
+                @Override
+                public void onServiceDisconnected(int profile) {
+                    BluetoothProfile proxy;
+                    synchronized (ProfileProxyManager.this) {
+                        proxy = mProxies.remove(profile);
+                        mPendingProfiles.remove(profile);
+                    }
+                    Log.d("Disconnected from the proxy of Bluetooth profile " + profile);
+                    if (proxy != null) {
+                        mBluetoothAdapter.closeProfileProxy(profile, proxy);
+                    }
+                }
+            };
+
+    private ProfileProxyManager() {}
+
+    public static ProfileProxyManager getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Starts connecting to the proxy of a profile, unless it is connected or connecting.
+     *
+     * @param context The context used to bind to the profile service.
+     * @param profile One of the {@link BluetoothProfile} constants.
+     * @return False if the connection could not be started, e.g. the profile is not supported.
+     */
+    public boolean request(Context context, int profile) {
+        synchronized (this) {
+            if (mProxies.containsKey(profile) || !mPendingProfiles.add(profile)) {
+                return true;
+            }
+        }
+        if (!mBluetoothAdapter.getProfileProxy(context, mServiceListener, profile)) {
+            synchronized (this) {
+                mPendingProfiles.remove(profile);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the proxy of a profile, connecting to it first if needed.
+     *
+     * @param context The context used to bind to the profile service.
+     * @param profile One of the {@link BluetoothProfile} constants.
+     * @param proxyClass The class of the proxy of the profile, e.g. {@code BluetoothA2dp.class}.
+     * @throws ProfileProxyException If the proxy did not connect within 60s.
+     */
+    public <T extends BluetoothProfile> T getProxy(
+            Context context, int profile, Class<T> proxyClass) throws ProfileProxyException {
+        if (!request(context, profile)) {
+            throw new ProfileProxyException(
+                    "Failed to start proxy connection for " + proxyClass.getSimpleName() + ".");
+        }
+        if (mWaiter.waitUntil(() -> isConnected(profile), PROXY_CONNECTION_TIMEOUT_SEC)
+                == EventWaiter.TIMED_OUT) {
+            synchronized (this) {
+                // So that the next call requests the proxy again.
+                mPendingProfiles.remove(profile);
+            }
+            throw new ProfileProxyException(
+                    String.format(
+                            "Proxy of %s did not connect within %ds.",
+                            proxyClass.getSimpleName(), PROXY_CONNECTION_TIMEOUT_SEC));
+        }
+        BluetoothProfile proxy;
+        synchronized (this) {
+            proxy = mProxies.get(profile);
+        }
+        if (proxy == null) {
+            throw new ProfileProxyException(
+                    "Proxy of " + proxyClass.getSimpleName() + " was disconnected.");
+        }
+        return proxyClass.cast(proxy);
+    }
+
+    private synchronized boolean isConnected(int profile) {
+        return mProxies.containsKey(profile);
+    }
+}
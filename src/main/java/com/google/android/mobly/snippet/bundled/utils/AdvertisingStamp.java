@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * A counter and a timestamp stamped into advertised data by the advertiser, so that a scanner can
+ * detect missed updates and compute the advertiser-to-scanner latency.
+ *
+ * <p>The stamp is encoded as a 4 byte big-endian counter followed by an 8 byte big-endian
+ * timestamp in milliseconds since the epoch. Latencies computed from it are only meaningful if
+ * the clocks of the advertiser and the scanner are synchronized.
+ */
+public class AdvertisingStamp {
+    /** The number of bytes of an encoded stamp. */
+    public static final int LENGTH = 12;
+
+    private final int counter;
+    private final long timestampMs;
+
+    public AdvertisingStamp(int counter, long timestampMs) {
+        this.counter = counter;
+        this.timestampMs = timestampMs;
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public byte[] encode() {
+        return ByteBuffer.allocate(LENGTH).putInt(counter).putLong(timestampMs).array();
+    }
+
+    /** Decodes a stamp from the start of the data, or returns null if the data is too short. */
+    @Nullable
+    public static AdvertisingStamp decode(@Nullable byte[] data) {
+        if (data == null || data.length < LENGTH) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return new AdvertisingStamp(buffer.getInt(), buffer.getLong());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A thread-safe, bounded cache of discovered devices, ordered by the time they were last seen.
+ *
+ * <p>Entries expire once they have not been seen for the time to live. When the cache is full,
+ * adding a new entry evicts the entry seen the longest time ago. The current time is passed to
+ * every method, so that callers decide the clock.
+ *
+ * @param <T> The type of the cached devices.
+ */
+public class DiscoveryCache<T> {
+
+    /** A cached device with the RSSI and the time it was last seen at. */
+    public static class Entry<T> {
+        private final T value;
+        private final int rssi;
+        private final long lastSeenTimeMs;
+
+        Entry(T value, int rssi, long lastSeenTimeMs) {
+            this.value = value;
+            this.rssi = rssi;
+            this.lastSeenTimeMs = lastSeenTimeMs;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public int getRssi() {
+            return rssi;
+        }
+
+        public long getLastSeenTimeMs() {
+            return lastSeenTimeMs;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlMs;
+    // Ordered from the least recently seen to the most recently seen.
+    private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>();
+
+    /**
+     * @param capacity The maximum number of entries.
+     * @param ttlMs The time after which an entry that was not seen again expires.
+     */
+    public DiscoveryCache(int capacity, long ttlMs) {
+        if (capacity <= 0 || ttlMs <= 0) {
+            throw new IllegalArgumentException("Capacity and TTL must be positive.");
+        }
+        this.capacity = capacity;
+        this.ttlMs = ttlMs;
+    }
+
+    /** Adds a device, or refreshes it if it is already cached. */
+    public synchronized void put(String key, T value, int rssi, long nowMs) {
+        expire(nowMs);
+        // Remove first so that the entry moves to the most recently seen end.
+        entries.remove(key);
+        if (entries.size() >= capacity) {
+            Iterator<Entry<T>> oldest = entries.values().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        entries.put(key, new Entry<>(value, rssi, nowMs));
+    }
+
+    /** Returns the cached device, or null if it is not cached or expired. */
+    @Nullable
+    public synchronized T get(String key, long nowMs) {
+        expire(nowMs);
+        Entry<T> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /** Returns the entries seen at or after the given time, least recently seen first. */
+    public synchronized List<Entry<T>> getSeenSince(long sinceTimeMs, long nowMs) {
+        expire(nowMs);
+        List<Entry<T>> result = new ArrayList<>();
+        for (Entry<T> entry : entries.values()) {
+            if (entry.lastSeenTimeMs >= sinceTimeMs) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void expire(long nowMs) {
+        Iterator<Entry<T>> iterator = entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().lastSeenTimeMs + ttlMs <= nowMs) {
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits until a condition is met, waking up as soon as an event related to the condition arrives.
+ *
+ * <p>Unlike {@link Utils#waitUntil(Utils.Predicate, int)}, which re-checks its predicate every 100
+ * ms, the predicate is re-checked whenever {@link #signal()} is called. A waiter can be tied to a
+ * broadcast action with {@link #forBroadcast(Context, String...)}, or signaled directly from a
+ * {@code NetworkCallback} or a profile listener. The predicate is still polled at a low rate as a
+ * fallback, so a missed event only delays the wait instead of hanging it.
+ *
+ * <p>Sample usage:
+ *
+ * <pre>
+ *   try (EventWaiter waiter =
+ *           EventWaiter.forBroadcast(mContext, WifiManager.WIFI_STATE_CHANGED_ACTION)) {
+ *       mWifiManager.setWifiEnabled(true);
+ *       long elapsedMs = waiter.waitUntil(() -> wifiIsEnabled(), 30);
+ *   }
+ * </pre>
+ */
+public class EventWaiter implements AutoCloseable {
+
+    /** Returned by {@link #waitUntil(Utils.Predicate, int)} if the condition was not met. */
+    public static final long TIMED_OUT = -1;
+
+    // Interval at which the predicate is re-checked if no event arrives.
+    private static final long DEFAULT_FALLBACK_POLL_INTERVAL_MS = 1000;
+
+    private final Object lock = new Object();
+    private final long fallbackPollIntervalMs;
+    // Number of times signal() was called. Guarded by lock.
+    private long signalCount = 0;
+    @Nullable private Context context;
+    @Nullable private BroadcastReceiver receiver;
+
+    public EventWaiter() {
+        this(DEFAULT_FALLBACK_POLL_INTERVAL_MS);
+    }
+
+    /**
+     * @param fallbackPollIntervalMs The interval at which the predicate is re-checked when no
+     *     event arrives.
+     */
+    public EventWaiter(long fallbackPollIntervalMs) {
+        if (fallbackPollIntervalMs <= 0) {
+            throw new IllegalArgumentException(
+                    "Fallback poll interval must be positive, got " + fallbackPollIntervalMs);
+        }
+        this.fallbackPollIntervalMs = fallbackPollIntervalMs;
+    }
+
+    /**
+     * Creates a waiter that is signaled whenever one of the given broadcast actions is received.
+     *
+     * <p>The receiver stays registered until {@link #close()} is called.
+     *
+     * @param context The context used to register the broadcast receiver.
+     * @param actions The broadcast actions that may change the waited on condition.
+     */
+    public static EventWaiter forBroadcast(Context context, String... actions) {
+        EventWaiter waiter = new EventWaiter();
+        IntentFilter filter = new IntentFilter();
+        for (String action : actions) {
+            filter.addAction(action);
+        }
+        waiter.context = context;
+        waiter.receiver =
+                new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context c, Intent intent) {
+                        waiter.signal();
+                    }
+                };
+        context.registerReceiver(waiter.receiver, filter);
+        return waiter;
+    }
+
+    /** Wakes up all threads waiting on this waiter so they re-check their condition. */
+    public void signal() {
+        synchronized (lock) {
+            signalCount++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a condition is met or the timeout expires.
+     *
+     * <p>If the predicate function throws an exception and interrupts the waiting, the exception
+     * will be wrapped in an {@link RuntimeException}. So is an interruption of the wait, and the
+     * interrupt status of the thread is restored.
+     *
+     * @param predicate A lambda function that specifies the condition to wait for. This function
+     *     should return true when the desired state has been reached.
+     * @param timeout The number of seconds to wait for before giving up.
+     * @return The number of milliseconds it took for the condition to be met, or {@link
+     *     #TIMED_OUT} if it was not met within the timeout.
+     */
+    public long waitUntil(Utils.Predicate predicate, int timeout) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(timeout);
+        try {
+            while (true) {
+                long observedSignalCount;
+                synchronized (lock) {
+                    observedSignalCount = signalCount;
+                }
+                // Evaluate the predicate outside of the lock so a slow binder call does not
+                // block the thread delivering the event.
+                if (predicate.waitCondition()) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                }
+                long remainingMs =
+                        TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return TIMED_OUT;
+                }
+                synchronized (lock) {
+                    // Only sleep if no event arrived while the predicate was being evaluated.
+                    if (signalCount == observedSignalCount) {
+                        lock.wait(Math.min(remainingMs, fallbackPollIntervalMs));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Keep the interrupt for the caller, which may be shutting down.
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Unregisters the broadcast receiver, if any. */
+    @Override
+    public void close() {
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A thread-safe store of the values of the characteristics served by a GATT server.
+ *
+ * <p>Values are kept as bytes, so reads only copy the requested slice. Values can be longer than
+ * the MTU: clients read them in several requests with increasing offsets, and write them with
+ * prepared writes, which are buffered per device until they are executed.
+ */
+public class GattAttributeStore {
+
+    /** A prepared write waiting for the execute write request of its device. */
+    private static class PreparedWrite {
+        final BluetoothGattCharacteristic characteristic;
+        final int offset;
+        final byte[] value;
+
+        PreparedWrite(BluetoothGattCharacteristic characteristic, int offset, byte[] value) {
+            this.characteristic = characteristic;
+            this.offset = offset;
+            this.value = value;
+        }
+    }
+
+    private final HashMap<BluetoothGattCharacteristic, byte[]> values = new HashMap<>();
+    private final HashMap<String, List<PreparedWrite>> preparedWrites = new HashMap<>();
+
+    /** Returns a copy of the value of the characteristic, or null if it has no value. */
+    @Nullable
+    public synchronized byte[] get(BluetoothGattCharacteristic characteristic) {
+        byte[] value = values.get(characteristic);
+        return value == null ? null : value.clone();
+    }
+
+    /** Sets the value of the characteristic. */
+    public synchronized void put(BluetoothGattCharacteristic characteristic, byte[] value) {
+        values.put(characteristic, value.clone());
+    }
+
+    /**
+     * Reads the value of the characteristic from an offset, for a read request.
+     *
+     * @return The bytes from {@code offset} to the end of the value, or null if the offset is past
+     *     the end of the value. A characteristic without a value reads as empty.
+     */
+    @Nullable
+    public synchronized byte[] read(BluetoothGattCharacteristic characteristic, int offset) {
+        byte[] value = values.get(characteristic);
+        if (value == null) {
+            value = new byte[0];
+        }
+        if (offset < 0 || offset > value.length) {
+            return null;
+        }
+        return Arrays.copyOfRange(value, offset, value.length);
+    }
+
+    /**
+     * Writes bytes into the value of the characteristic at an offset, for a write request.
+     *
+     * <p>The value is cut at the end of the written bytes, so a write at offset 0 replaces the
+     * whole value.
+     *
+     * @return False if the offset is past the end of the value, in which case nothing is written.
+     */
+    public synchronized boolean write(
+            BluetoothGattCharacteristic characteristic, int offset, byte[] data) {
+        return writeAt(characteristic, offset, data, true);
+    }
+
+    /** Buffers a prepared write from a device until {@link #executeWrites} is called. */
+    public synchronized void prepareWrite(
+            String deviceAddress,
+            BluetoothGattCharacteristic characteristic,
+            int offset,
+            byte[] data) {
+        List<PreparedWrite> writes = preparedWrites.get(deviceAddress);
+        if (writes == null) {
+            writes = new ArrayList<>();
+            preparedWrites.put(deviceAddress, writes);
+        }
+        writes.add(new PreparedWrite(characteristic, offset, data.clone()));
+    }
+
+    /**
+     * Applies or discards the prepared writes of a device, in the order they were prepared.
+     *
+     * @param deviceAddress The address of the device that sent the execute write request.
+     * @param execute Whether to apply the prepared writes, or to discard them.
+     * @return False if one of the prepared writes had an invalid offset. The writes before it are
+     *     still applied.
+     */
+    public synchronized boolean executeWrites(String deviceAddress, boolean execute) {
+        List<PreparedWrite> writes = preparedWrites.remove(deviceAddress);
+        if (writes == null || !execute) {
+            return true;
+        }
+        for (PreparedWrite write : writes) {
+            // The prepared writes are parts of one long value, so each of them keeps the bytes
+            // written past it by the previous ones.
+            if (!writeAt(write.characteristic, write.offset, write.value, false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Discards the prepared writes of a device, e.g. when it disconnects. */
+    public synchronized void clearPreparedWrites(String deviceAddress) {
+        preparedWrites.remove(deviceAddress);
+    }
+
+    private boolean writeAt(
+            BluetoothGattCharacteristic characteristic,
+            int offset,
+            byte[] data,
+            boolean truncate) {
+        byte[] value = values.get(characteristic);
+        if (value == null) {
+            value = new byte[0];
+        }
+        if (offset < 0 || offset > value.length) {
+            return false;
+        }
+        int length = offset + data.length;
+        byte[] newValue = Arrays.copyOf(value, truncate ? length : Math.max(value.length, length));
+        System.arraycopy(data, 0, newValue, offset, data.length);
+        values.put(characteristic, newValue);
+        return true;
+    }
+}
@@ -22,6 +22,8 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.net.wifi.WifiConfiguration;
@@ -102,19 +104,79 @@ public class JsonDeserializer {
             }
         }
         if (jsonObject.has("ManufacturerData")) {
-            JSONObject manufacturerData = jsonObject.getJSONObject("ManufacturerData");
-            int manufacturerId = manufacturerData.getInt("ManufacturerId");
-            byte[] manufacturerSpecificData =
-                    Base64.decode(
-                            manufacturerData.getString("ManufacturerSpecificData"), Base64.DEFAULT);
-            builder.addManufacturerData(manufacturerId, manufacturerSpecificData);
+            // Either one manufacturer data object, or a list of them for larger payloads, e.g. in
+            // extended advertising.
+            JSONArray manufacturerDataList = jsonObject.optJSONArray("ManufacturerData");
+            if (manufacturerDataList == null) {
+                manufacturerDataList =
+                        new JSONArray().put(jsonObject.getJSONObject("ManufacturerData"));
+            }
+            for (int i = 0; i < manufacturerDataList.length(); i++) {
+                JSONObject manufacturerData = manufacturerDataList.getJSONObject(i);
+                int manufacturerId = manufacturerData.getInt("ManufacturerId");
+                byte[] manufacturerSpecificData =
+                        Base64.decode(
+                                manufacturerData.getString("ManufacturerSpecificData"),
+                                Base64.DEFAULT);
+                builder.addManufacturerData(manufacturerId, manufacturerSpecificData);
+            }
+        }
+        return builder.build();
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    public static AdvertisingSetParameters jsonToAdvertisingSetParameters(JSONObject jsonObject)
+            throws JSONException {
+        AdvertisingSetParameters.Builder builder = new AdvertisingSetParameters.Builder();
+        if (jsonObject.has("Legacy")) {
+            builder.setLegacyMode(jsonObject.getBoolean("Legacy"));
+        }
+        if (jsonObject.has("Connectable")) {
+            builder.setConnectable(jsonObject.getBoolean("Connectable"));
+        }
+        if (jsonObject.has("Scannable")) {
+            builder.setScannable(jsonObject.getBoolean("Scannable"));
+        }
+        if (jsonObject.has("Anonymous")) {
+            builder.setAnonymous(jsonObject.getBoolean("Anonymous"));
+        }
+        if (jsonObject.has("IncludeTxPower")) {
+            builder.setIncludeTxPower(jsonObject.getBoolean("IncludeTxPower"));
+        }
+        // Interval in units of 0.625 ms.
+        if (jsonObject.has("Interval")) {
+            builder.setInterval(jsonObject.getInt("Interval"));
+        }
+        // Tx power in dBm.
+        if (jsonObject.has("TxPowerLevel")) {
+            builder.setTxPowerLevel(jsonObject.getInt("TxPowerLevel"));
+        }
+        if (jsonObject.has("PrimaryPhy")) {
+            builder.setPrimaryPhy(MbsEnums.BLE_PHY.getInt(jsonObject.getString("PrimaryPhy")));
+        }
+        if (jsonObject.has("SecondaryPhy")) {
+            builder.setSecondaryPhy(MbsEnums.BLE_PHY.getInt(jsonObject.getString("SecondaryPhy")));
+        }
+        return builder.build();
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    public static PeriodicAdvertisingParameters jsonToPeriodicAdvertisingParameters(
+            JSONObject jsonObject) throws JSONException {
+        PeriodicAdvertisingParameters.Builder builder = new PeriodicAdvertisingParameters.Builder();
+        if (jsonObject.has("IncludeTxPower")) {
+            builder.setIncludeTxPower(jsonObject.getBoolean("IncludeTxPower"));
+        }
+        // Interval in units of 1.25 ms.
+        if (jsonObject.has("Interval")) {
+            builder.setInterval(jsonObject.getInt("Interval"));
         }
         return builder.build();
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static BluetoothGattService jsonToBluetoothGattService(
-            DataHolder dataHolder, JSONObject jsonObject) throws JSONException {
+            GattAttributeStore attributeStore, JSONObject jsonObject) throws JSONException {
         BluetoothGattService service =
                 new BluetoothGattService(
                         UUID.fromString(jsonObject.getString("UUID")),
@@ -122,7 +184,8 @@ public class JsonDeserializer {
         JSONArray characteristics = jsonObject.getJSONArray("Characteristics");
         for (int i = 0; i < characteristics.length(); i++) {
             BluetoothGattCharacteristic characteristic =
-                    jsonToBluetoothGattCharacteristic(dataHolder, characteristics.getJSONObject(i));
+                    jsonToBluetoothGattCharacteristic(
+                            attributeStore, characteristics.getJSONObject(i));
             service.addCharacteristic(characteristic);
         }
         return service;
@@ -130,7 +193,7 @@ public class JsonDeserializer {
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static BluetoothGattCharacteristic jsonToBluetoothGattCharacteristic(
-            DataHolder dataHolder, JSONObject jsonObject) throws JSONException {
+            GattAttributeStore attributeStore, JSONObject jsonObject) throws JSONException {
         BluetoothGattCharacteristic characteristic =
                 new BluetoothGattCharacteristic(
                         UUID.fromString(jsonObject.getString("UUID")),
@@ -149,7 +212,9 @@ public class JsonDeserializer {
             }
         }
         if (jsonObject.has("Data")) {
-              dataHolder.insertData(characteristic, jsonObject.getString("Data"));
+            // Decode once here, so read requests only copy bytes.
+            attributeStore.put(
+                    characteristic, Base64.decode(jsonObject.getString("Data"), Base64.NO_WRAP));
         }
         return characteristic;
     }
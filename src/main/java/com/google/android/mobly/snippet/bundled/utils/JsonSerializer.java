@@ -28,11 +28,12 @@ import android.bluetooth.le.ScanRecord;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.net.DhcpInfo;
-import android.net.wifi.SupplicantState;
+import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiInfo;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.ParcelUuid;
 import android.util.Base64;
 import android.util.SparseArray;
@@ -43,7 +44,9 @@ import java.lang.reflect.Modifier;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -86,6 +89,8 @@ public class JsonSerializer {
             return serializeWifiConfiguration((WifiConfiguration) object);
         } else if (object instanceof WifiInfo) {
             return serializeWifiInfo((WifiInfo) object);
+        } else if (object instanceof ScanResult) {
+            return serializeWifiScanResult((ScanResult) object);
         }
         return defaultSerialization(object);
     }
@@ -93,6 +98,9 @@ public class JsonSerializer {
     /**
      * By default, we rely on Gson to do the right job.
      *
+     * <p>This goes through reflection and a String round trip, so frequently serialized types
+     * have dedicated serializers above that write the JSONObject directly.
+     *
      * @param data An object to serialize
      * @return A JSONObject that has the info of the serialized data object.
      * @throws JSONException
@@ -101,8 +109,109 @@ public class JsonSerializer {
         return new JSONObject(gson.toJson(data));
     }
 
+    /**
+     * Measures the cost of serializing an object with {@link #toJson(Object)} against the
+     * reflection based Gson serialization it replaces.
+     *
+     * <pre>The returned {@link Bundle} has the following info:
+     *          "Iterations", int
+     *          "GsonNanosPerObject", long
+     *          "DedicatedNanosPerObject", long
+     *          "GsonBytesPerObject", long
+     *          "DedicatedBytesPerObject", long
+     * </pre>
+     *
+     * <p>The byte counts are only available when the runtime supports allocation counting, they
+     * are -1 otherwise.
+     *
+     * @param data An object to serialize.
+     * @param iterations The number of times to serialize the object with each serializer.
+     * @return A {@link Bundle} object.
+     */
+    public Bundle benchmarkToJson(Object data, int iterations) throws JSONException {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iterations must be positive, got " + iterations);
+        }
+        Bundle result = new Bundle();
+        result.putInt("Iterations", iterations);
+        long[] gsonCost = measureSerialization(() -> defaultSerialization(data), iterations);
+        long[] dedicatedCost = measureSerialization(() -> toJson(data), iterations);
+        result.putLong("GsonNanosPerObject", gsonCost[0] / iterations);
+        result.putLong("DedicatedNanosPerObject", dedicatedCost[0] / iterations);
+        result.putLong("GsonBytesPerObject", gsonCost[1] < 0 ? -1 : gsonCost[1] / iterations);
+        result.putLong(
+                "DedicatedBytesPerObject",
+                dedicatedCost[1] < 0 ? -1 : dedicatedCost[1] / iterations);
+        return result;
+    }
+
+    private interface Serialization {
+        JSONObject serialize() throws JSONException;
+    }
+
+    /** Returns the total elapsed nanoseconds and allocated bytes of running a serialization. */
+    @SuppressWarnings("deprecation")
+    private static long[] measureSerialization(Serialization serialization, int iterations)
+            throws JSONException {
+        // Warm up so class loading and JIT compilation are not measured.
+        for (int i = 0; i < Math.min(iterations, 10); i++) {
+            serialization.serialize();
+        }
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            serialization.serialize();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+        long allocatedBytes = Debug.getThreadAllocSize();
+        return new long[] {elapsedNanos, allocatedBytes > 0 ? allocatedBytes : -1};
+    }
+
+    private static Object nullToJson(Object value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    /** Serializes a {@link BitSet} the same way Gson does, as an array of 0 and 1. */
+    private static JSONArray serializeBitSet(BitSet bitSet) {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < bitSet.length(); i++) {
+            result.put(bitSet.get(i) ? 1 : 0);
+        }
+        return result;
+    }
+
+    /**
+     * Serializes an IPv4 address in network byte order the way Gson serializes an {@link
+     * InetAddress}, as its host address, or null if the address is not set.
+     */
+    private static Object serializeIpAddress(int ipAddress) {
+        if (ipAddress == 0) {
+            return JSONObject.NULL;
+        }
+        byte[] addressBytes = {
+            (byte) (0xff & ipAddress),
+            (byte) (0xff & (ipAddress >> 8)),
+            (byte) (0xff & (ipAddress >> 16)),
+            (byte) (0xff & (ipAddress >> 24))
+        };
+        try {
+            return InetAddress.getByAddress(addressBytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            return JSONObject.NULL;
+        }
+    }
+
     private JSONObject serializeDhcpInfo(DhcpInfo data) throws JSONException {
-        JSONObject result = new JSONObject(gson.toJson(data));
+        JSONObject result = new JSONObject();
+        result.put("ipAddress", data.ipAddress);
+        result.put("gateway", data.gateway);
+        result.put("netmask", data.netmask);
+        result.put("dns1", data.dns1);
+        result.put("dns2", data.dns2);
+        result.put("serverAddress", data.serverAddress);
+        result.put("leaseDuration", data.leaseDuration);
         int ipAddress = data.ipAddress;
         byte[] addressBytes = {
             (byte) (0xff & ipAddress),
@@ -120,14 +229,82 @@ public class JsonSerializer {
     }
 
     private JSONObject serializeWifiConfiguration(WifiConfiguration data) throws JSONException {
-        JSONObject result = new JSONObject(gson.toJson(data));
+        JSONObject result = new JSONObject();
+        result.put("networkId", data.networkId);
+        result.put("status", data.status);
+        result.put("BSSID", nullToJson(data.BSSID));
+        result.put("FQDN", nullToJson(data.FQDN));
+        result.put("providerFriendlyName", nullToJson(data.providerFriendlyName));
+        result.put("isHomeProviderNetwork", data.isHomeProviderNetwork);
+        JSONArray roamingConsortiumIds = new JSONArray();
+        if (data.roamingConsortiumIds != null) {
+            for (long roamingConsortiumId : data.roamingConsortiumIds) {
+                roamingConsortiumIds.put(roamingConsortiumId);
+            }
+        }
+        result.put("roamingConsortiumIds", roamingConsortiumIds);
+        result.put("preSharedKey", nullToJson(data.preSharedKey));
+        JSONArray wepKeys = new JSONArray();
+        if (data.wepKeys != null) {
+            for (String wepKey : data.wepKeys) {
+                wepKeys.put(nullToJson(wepKey));
+            }
+        }
+        result.put("wepKeys", wepKeys);
+        result.put("wepTxKeyIndex", data.wepTxKeyIndex);
+        result.put("priority", data.priority);
+        result.put("hiddenSSID", data.hiddenSSID);
+        result.put("allowedKeyManagement", serializeBitSet(data.allowedKeyManagement));
+        result.put("allowedProtocols", serializeBitSet(data.allowedProtocols));
+        result.put("allowedAuthAlgorithms", serializeBitSet(data.allowedAuthAlgorithms));
+        result.put("allowedPairwiseCiphers", serializeBitSet(data.allowedPairwiseCiphers));
+        result.put("allowedGroupCiphers", serializeBitSet(data.allowedGroupCiphers));
+        result.put(
+                "allowedGroupManagementCiphers",
+                serializeBitSet(data.allowedGroupManagementCiphers));
+        result.put("allowedSuiteBCiphers", serializeBitSet(data.allowedSuiteBCiphers));
+        // WifiEnterpriseConfig only exposes its settings through private fields, so it keeps
+        // going through Gson to produce the same nested object as before.
+        result.put(
+                "enterpriseConfig",
+                data.enterpriseConfig == null
+                        ? JSONObject.NULL
+                        : new JSONObject(gson.toJson(data.enterpriseConfig)));
         result.put("Status", WifiConfiguration.Status.strings[data.status]);
         result.put("SSID", trimQuotationMarks(data.SSID));
         return result;
     }
 
     private JSONObject serializeWifiInfo(WifiInfo data) throws JSONException {
-        JSONObject result = new JSONObject(gson.toJson(data));
+        JSONObject result = new JSONObject();
+        // These keys keep the names Gson used to derive from WifiInfo's private fields.
+        result.put("mBSSID", nullToJson(data.getBSSID()));
+        result.put("mMacAddress", nullToJson(data.getMacAddress()));
+        result.put("mLinkSpeed", data.getLinkSpeed());
+        result.put("mFrequency", data.getFrequency());
+        result.put("mRssi", data.getRssi());
+        result.put("mNetworkId", data.getNetworkId());
+        result.put("mSupplicantState", data.getSupplicantState().name());
+        result.put("mIpAddress", serializeIpAddress(data.getIpAddress()));
+        // The field was renamed across releases, so both names are kept.
+        result.put("mHiddenSSID", data.getHiddenSSID());
+        result.put("mIsHiddenSsid", data.getHiddenSSID());
+        if (Build.VERSION.SDK_INT >= 29) {
+            result.put("mTxLinkSpeed", data.getTxLinkSpeedMbps());
+            result.put("mRxLinkSpeed", data.getRxLinkSpeedMbps());
+            result.put("mFqdn", nullToJson(data.getPasspointFqdn()));
+            result.put(
+                    "mProviderFriendlyName", nullToJson(data.getPasspointProviderFriendlyName()));
+        }
+        if (Build.VERSION.SDK_INT >= 30) {
+            result.put("mWifiStandard", data.getWifiStandard());
+            result.put("mMaxSupportedTxLinkSpeed", data.getMaxSupportedTxLinkSpeedMbps());
+            result.put("mMaxSupportedRxLinkSpeed", data.getMaxSupportedRxLinkSpeedMbps());
+        }
+        if (Build.VERSION.SDK_INT >= 31) {
+            result.put("mSecurityType", data.getCurrentSecurityType());
+            result.put("mSubscriptionId", data.getSubscriptionId());
+        }
         result.put("NetworkId", data.getNetworkId());
         result.put("StaFrequency", data.getFrequency());
         result.put("RSSI", data.getRssi());
@@ -135,11 +312,46 @@ public class JsonSerializer {
             result.put("MaxSupportedTxLinkSpeedMbps", data.getMaxSupportedTxLinkSpeedMbps());
         }
         result.put("SSID", trimQuotationMarks(data.getSSID()));
-        for (SupplicantState state : SupplicantState.values()) {
-            if (data.getSupplicantState().equals(state)) {
-                result.put("SupplicantState", state.name());
-            }
-        }
+        result.put("SupplicantState", data.getSupplicantState().name());
+        return result;
+    }
+
+    private JSONObject serializeWifiScanResult(ScanResult data) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("SSID", nullToJson(data.SSID));
+        result.put("BSSID", nullToJson(data.BSSID));
+        result.put("capabilities", nullToJson(data.capabilities));
+        result.put("level", data.level);
+        result.put("frequency", data.frequency);
+        result.put("timestamp", data.timestamp);
+        result.put("channelWidth", data.channelWidth);
+        result.put("centerFreq0", data.centerFreq0);
+        result.put("centerFreq1", data.centerFreq1);
+        result.put(
+                "venueName", data.venueName == null ? JSONObject.NULL : data.venueName.toString());
+        result.put(
+                "operatorFriendlyName",
+                data.operatorFriendlyName == null
+                        ? JSONObject.NULL
+                        : data.operatorFriendlyName.toString());
+        return result;
+    }
+
+    /**
+     * Serializes a Wi-Fi scan result into a {@link Bundle}, for use in events.
+     *
+     * <p>Only the main fields of {@link #serializeWifiScanResult(ScanResult)} are kept, with the
+     * same keys.
+     */
+    public Bundle serializeWifiScanResultToBundle(ScanResult data) {
+        Bundle result = new Bundle();
+        result.putString("SSID", data.SSID);
+        result.putString("BSSID", data.BSSID);
+        result.putString("capabilities", data.capabilities);
+        result.putInt("level", data.level);
+        result.putInt("frequency", data.frequency);
+        result.putLong("timestamp", data.timestamp);
+        result.putInt("channelWidth", data.channelWidth);
         return result;
     }
 
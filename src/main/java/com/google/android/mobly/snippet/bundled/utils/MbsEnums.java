@@ -16,6 +16,7 @@
 
 package com.google.android.mobly.snippet.bundled.utils;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
@@ -23,6 +24,7 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetCallback;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanSettings;
 import android.net.wifi.WifiManager.LocalOnlyHotspotCallback;
@@ -35,7 +37,9 @@ public class MbsEnums {
     public static final RpcEnum BLE_SCAN_FAILED_ERROR_CODE = buildBleScanFailedErrorCodeEnum();
     public static final RpcEnum BLE_SCAN_RESULT_CALLBACK_TYPE =
             buildBleScanResultCallbackTypeEnum();
-    static final RpcEnum BLUETOOTH_DEVICE_BOND_STATE = buildBluetoothDeviceBondState();
+    public static final RpcEnum BLUETOOTH_ADAPTER_STATE = buildBluetoothAdapterStateEnum();
+    public static final RpcEnum BLUETOOTH_PROFILE = buildBluetoothProfileEnum();
+    public static final RpcEnum BLUETOOTH_DEVICE_BOND_STATE = buildBluetoothDeviceBondState();
     static final RpcEnum BLUETOOTH_DEVICE_TYPE = buildBluetoothDeviceTypeEnum();
     static final RpcEnum BLE_SERVICE_TYPE = buildServiceTypeEnum();
     public static final RpcEnum BLE_STATUS_TYPE = buildStatusTypeEnum();
@@ -43,6 +47,8 @@ public class MbsEnums {
     public static final RpcEnum BLE_PROPERTY_TYPE = buildPropertyTypeEnum();
     static final RpcEnum BLE_PERMISSION_TYPE = buildPermissionTypeEnum();
     static final RpcEnum BLE_SCAN_MODE = buildBleScanModeEnum();
+    static final RpcEnum BLE_PHY = buildBlePhyEnum();
+    public static final RpcEnum ADVERTISING_SET_STATUS = buildAdvertisingSetStatusEnum();
     public static final RpcEnum LOCAL_HOTSPOT_FAIL_REASON = buildLocalHotspotFailedReason();
     public static final RpcEnum ADVERTISE_FAILURE_ERROR_CODE =
             new RpcEnum.Builder().add("ADVERTISE_FAILED_ALREADY_STARTED",
@@ -59,6 +65,24 @@ public class MbsEnums {
                         AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS)
                     .build();
 
+    private static RpcEnum buildBluetoothAdapterStateEnum() {
+        RpcEnum.Builder builder = new RpcEnum.Builder();
+        return builder.add("STATE_OFF", BluetoothAdapter.STATE_OFF)
+                .add("STATE_TURNING_ON", BluetoothAdapter.STATE_TURNING_ON)
+                .add("STATE_ON", BluetoothAdapter.STATE_ON)
+                .add("STATE_TURNING_OFF", BluetoothAdapter.STATE_TURNING_OFF)
+                .build();
+    }
+
+    private static RpcEnum buildBluetoothProfileEnum() {
+        RpcEnum.Builder builder = new RpcEnum.Builder();
+        return builder.add("A2DP", BluetoothProfile.A2DP)
+                .add("HEADSET", BluetoothProfile.HEADSET)
+                .add("HEARING_AID", BluetoothProfile.HEARING_AID)
+                .add("LE_AUDIO", BluetoothProfile.LE_AUDIO)
+                .build();
+    }
+
     private static RpcEnum buildBluetoothDeviceBondState() {
         RpcEnum.Builder builder = new RpcEnum.Builder();
         return builder.add("BOND_NONE", BluetoothDevice.BOND_NONE)
@@ -241,6 +265,36 @@ public class MbsEnums {
         return builder.build();
     }
 
+    private static RpcEnum buildBlePhyEnum() {
+        RpcEnum.Builder builder = new RpcEnum.Builder();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return builder.build();
+        }
+        builder.add("PHY_LE_1M", BluetoothDevice.PHY_LE_1M)
+                .add("PHY_LE_2M", BluetoothDevice.PHY_LE_2M)
+                .add("PHY_LE_CODED", BluetoothDevice.PHY_LE_CODED);
+        return builder.build();
+    }
+
+    private static RpcEnum buildAdvertisingSetStatusEnum() {
+        RpcEnum.Builder builder = new RpcEnum.Builder();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return builder.build();
+        }
+        builder.add("ADVERTISE_SUCCESS", AdvertisingSetCallback.ADVERTISE_SUCCESS)
+                .add("ADVERTISE_FAILED_ALREADY_STARTED",
+                    AdvertisingSetCallback.ADVERTISE_FAILED_ALREADY_STARTED)
+                .add("ADVERTISE_FAILED_DATA_TOO_LARGE",
+                    AdvertisingSetCallback.ADVERTISE_FAILED_DATA_TOO_LARGE)
+                .add("ADVERTISE_FAILED_FEATURE_UNSUPPORTED",
+                    AdvertisingSetCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED)
+                .add("ADVERTISE_FAILED_INTERNAL_ERROR",
+                    AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR)
+                .add("ADVERTISE_FAILED_TOO_MANY_ADVERTISERS",
+                    AdvertisingSetCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+        return builder.build();
+    }
+
     private static RpcEnum buildLocalHotspotFailedReason() {
         RpcEnum.Builder builder = new RpcEnum.Builder();
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
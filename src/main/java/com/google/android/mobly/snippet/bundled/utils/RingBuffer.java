@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread-safe, fixed capacity FIFO buffer.
+ *
+ * <p>When the buffer is full, adding an element evicts the oldest one. The number of evicted
+ * elements is counted so callers can report how much data was dropped.
+ */
+public class RingBuffer<T> {
+    private final Object[] elements;
+    // Index of the oldest element.
+    private int head = 0;
+    private int size = 0;
+    private long droppedCount = 0;
+
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        elements = new Object[capacity];
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds an element, evicting the oldest element if the buffer is full.
+     *
+     * @return The number of elements in the buffer after adding.
+     */
+    public synchronized int add(T element) {
+        if (size == elements.length) {
+            elements[head] = element;
+            head = (head + 1) % elements.length;
+            droppedCount++;
+        } else {
+            elements[(head + size) % elements.length] = element;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Removes and returns up to {@code maxElements} of the oldest elements, oldest first.
+     *
+     * @param maxElements The maximum number of elements to remove, not negative.
+     */
+    public synchronized List<T> drain(int maxElements) {
+        if (maxElements < 0) {
+            throw new IllegalArgumentException(
+                    "Max elements must not be negative, got " + maxElements);
+        }
+        int count = Math.min(maxElements, size);
+        List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            @SuppressWarnings("unchecked")
+            T element = (T) elements[head];
+            result.add(element);
+            elements[head] = null;
+            head = (head + 1) % elements.length;
+        }
+        size -= count;
+        return result;
+    }
+
+    /** Returns the number of elements evicted since the last call, and resets the count. */
+    public synchronized long takeDroppedCount() {
+        long result = droppedCount;
+        droppedCount = 0;
+        return result;
+    }
+}
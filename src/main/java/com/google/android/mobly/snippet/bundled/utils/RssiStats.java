@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+/**
+ * Running statistics of the RSSI samples received from one device.
+ *
+ * <p>Samples are kept in a histogram with one bucket per dBm, so the memory used does not grow
+ * with the number of samples. RSSI values outside of [{@link #MIN_RSSI}, {@link #MAX_RSSI}] are
+ * clamped into that range.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class RssiStats {
+    public static final int MIN_RSSI = -127;
+    public static final int MAX_RSSI = 20;
+
+    private final int[] histogram = new int[MAX_RSSI - MIN_RSSI + 1];
+    private long count = 0;
+    private long sum = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long firstSeenTimeMs = 0;
+    private long lastSeenTimeMs = 0;
+
+    /**
+     * Records one RSSI sample.
+     *
+     * @param rssi The received signal strength in dBm.
+     * @param timeMs The time the sample was received at, in milliseconds.
+     */
+    public void add(int rssi, long timeMs) {
+        int clamped = Math.max(MIN_RSSI, Math.min(MAX_RSSI, rssi));
+        histogram[clamped - MIN_RSSI]++;
+        if (count == 0) {
+            firstSeenTimeMs = timeMs;
+        }
+        lastSeenTimeMs = timeMs;
+        count++;
+        sum += clamped;
+        min = Math.min(min, clamped);
+        max = Math.max(max, clamped);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFirstSeenTimeMs() {
+        return firstSeenTimeMs;
+    }
+
+    public long getLastSeenTimeMs() {
+        return lastSeenTimeMs;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the RSSI at the given percentile, using the nearest-rank method.
+     *
+     * @param percentile A value in (0, 100].
+     */
+    public int getPercentile(double percentile) {
+        if (count == 0) {
+            throw new IllegalStateException("No RSSI sample has been recorded.");
+        }
+        long rank = Utils.getNearestRank(percentile, count);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i + MIN_RSSI;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Computes the difference between consecutive scans, keyed by e.g. the BSSID of each result.
+ *
+ * <p>A result is reported as changed when its RSSI moved by at least the threshold since it was
+ * last reported, so a slow drift is reported once it adds up instead of being lost between scans.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @param <T> The type of the scan results.
+ */
+public class ScanResultDiffer<T> {
+
+    /** The results added, removed and changed by a scan. */
+    public static class Diff<T> {
+        private final List<T> added = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+        private final List<T> changed = new ArrayList<>();
+
+        public List<T> getAdded() {
+            return added;
+        }
+
+        /** Returns the keys of the results that are no longer seen. */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public List<T> getChanged() {
+            return changed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
+
+    private final int rssiThresholdDb;
+    private final ToIntFunction<T> rssiFunction;
+    // The RSSI each known result was last reported with.
+    private final Map<String, Integer> reportedRssis = new HashMap<>();
+
+    /**
+     * @param rssiThresholdDb The minimum RSSI change for a result to be reported as changed.
+     * @param rssiFunction Returns the RSSI of a result.
+     */
+    public ScanResultDiffer(int rssiThresholdDb, ToIntFunction<T> rssiFunction) {
+        if (rssiThresholdDb <= 0) {
+            throw new IllegalArgumentException(
+                    "RSSI threshold must be positive, got " + rssiThresholdDb);
+        }
+        this.rssiThresholdDb = rssiThresholdDb;
+        this.rssiFunction = rssiFunction;
+    }
+
+    /**
+     * Records the results of a scan and returns how they differ from the previous scans.
+     *
+     * @param results The results of the scan, by key.
+     */
+    public Diff<T> update(Map<String, T> results) {
+        Diff<T> diff = new Diff<>();
+        Iterator<String> known = reportedRssis.keySet().iterator();
+        while (known.hasNext()) {
+            String key = known.next();
+            if (!results.containsKey(key)) {
+                diff.removed.add(key);
+                known.remove();
+            }
+        }
+        for (Map.Entry<String, T> entry : results.entrySet()) {
+            int rssi = rssiFunction.applyAsInt(entry.getValue());
+            Integer reportedRssi = reportedRssis.get(entry.getKey());
+            if (reportedRssi == null) {
+                diff.added.add(entry.getValue());
+            } else if (Math.abs(rssi - reportedRssi) >= rssiThresholdDb) {
+                diff.changed.add(entry.getValue());
+            } else {
+                continue;
+            }
+            reportedRssis.put(entry.getKey(), rssi);
+        }
+        return diff;
+    }
+
+    /** Forgets all the results, so the next scan reports all its results as added. */
+    public void clear() {
+        reportedRssis.clear();
+    }
+}
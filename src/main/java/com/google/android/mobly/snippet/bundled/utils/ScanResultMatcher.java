@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import android.annotation.TargetApi;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.util.Base64;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A predicate on BLE scan results for criteria that {@link android.bluetooth.le.ScanFilter} cannot
+ * express.
+ *
+ * <p>The matcher is compiled once from JSON when a scan starts, so checking a result only does
+ * comparisons on data already held by the {@link ScanResult}. All the given criteria must match.
+ * E.g.
+ *
+ * <pre>
+ *     {
+ *       "MinRssi": -70,
+ *       "NameRegex": "^Pixel",
+ *       "Addresses": ["00:11:22:33:44:55"],
+ *       "ServiceData": [
+ *         {"Uuid": "0000FEF3-...", "Data": (Base64), "Mask": (Base64, optional)},
+ *       ],
+ *       "ManufacturerData": [
+ *         {"ManufacturerId": 224, "Data": (Base64), "Mask": (Base64, optional)},
+ *       ],
+ *     }
+ * </pre>
+ *
+ * <p>A data pattern matches if the advertised data is at least as long as the pattern and every
+ * pattern byte equals the advertised byte at the same offset, on the bits set in the mask. Without
+ * a mask, all bits are compared.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ScanResultMatcher {
+
+    private static class DataPattern<K> {
+        final K key;
+        final byte[] data;
+        final byte[] mask;
+
+        DataPattern(K key, byte[] data, byte[] mask) {
+            this.key = key;
+            this.data = data;
+            this.mask = mask;
+        }
+
+        boolean matches(@Nullable byte[] actual) {
+            if (actual == null || actual.length < data.length) {
+                return false;
+            }
+            for (int i = 0; i < data.length; i++) {
+                if (((actual[i] ^ data[i]) & mask[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Nullable private final Integer minRssi;
+    @Nullable private final Pattern namePattern;
+    @Nullable private final Set<String> addresses;
+    private final List<DataPattern<ParcelUuid>> serviceDataPatterns;
+    private final List<DataPattern<Integer>> manufacturerDataPatterns;
+
+    private ScanResultMatcher(
+            @Nullable Integer minRssi,
+            @Nullable Pattern namePattern,
+            @Nullable Set<String> addresses,
+            List<DataPattern<ParcelUuid>> serviceDataPatterns,
+            List<DataPattern<Integer>> manufacturerDataPatterns) {
+        this.minRssi = minRssi;
+        this.namePattern = namePattern;
+        this.addresses = addresses;
+        this.serviceDataPatterns = serviceDataPatterns;
+        this.manufacturerDataPatterns = manufacturerDataPatterns;
+    }
+
+    /** Compiles a matcher from its JSON representation, see the class doc for the format. */
+    public static ScanResultMatcher fromJson(JSONObject jsonObject) throws JSONException {
+        Integer minRssi = jsonObject.has("MinRssi") ? jsonObject.getInt("MinRssi") : null;
+        Pattern namePattern =
+                jsonObject.has("NameRegex")
+                        ? Pattern.compile(jsonObject.getString("NameRegex"))
+                        : null;
+        Set<String> addresses = null;
+        if (jsonObject.has("Addresses")) {
+            JSONArray addressArray = jsonObject.getJSONArray("Addresses");
+            addresses = new HashSet<>();
+            for (int i = 0; i < addressArray.length(); i++) {
+                addresses.add(addressArray.getString(i).toUpperCase(Locale.US));
+            }
+        }
+        List<DataPattern<ParcelUuid>> serviceDataPatterns = new ArrayList<>();
+        JSONArray serviceData = jsonObject.optJSONArray("ServiceData");
+        for (int i = 0; serviceData != null && i < serviceData.length(); i++) {
+            JSONObject entry = serviceData.getJSONObject(i);
+            serviceDataPatterns.add(
+                    toDataPattern(ParcelUuid.fromString(entry.getString("Uuid")), entry));
+        }
+        List<DataPattern<Integer>> manufacturerDataPatterns = new ArrayList<>();
+        JSONArray manufacturerData = jsonObject.optJSONArray("ManufacturerData");
+        for (int i = 0; manufacturerData != null && i < manufacturerData.length(); i++) {
+            JSONObject entry = manufacturerData.getJSONObject(i);
+            manufacturerDataPatterns.add(toDataPattern(entry.getInt("ManufacturerId"), entry));
+        }
+        return new ScanResultMatcher(
+                minRssi, namePattern, addresses, serviceDataPatterns, manufacturerDataPatterns);
+    }
+
+    private static <K> DataPattern<K> toDataPattern(K key, JSONObject entry)
+            throws JSONException {
+        byte[] data = Base64.decode(entry.getString("Data"), Base64.DEFAULT);
+        byte[] mask;
+        if (entry.has("Mask")) {
+            mask = Base64.decode(entry.getString("Mask"), Base64.DEFAULT);
+            if (mask.length != data.length) {
+                throw new JSONException(
+                        "Mask length " + mask.length + " differs from data length " + data.length);
+            }
+        } else {
+            mask = new byte[data.length];
+            Arrays.fill(mask, (byte) 0xFF);
+        }
+        return new DataPattern<>(key, data, mask);
+    }
+
+    /** Returns whether the scan result satisfies all the criteria of this matcher. */
+    public boolean matches(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        return matches(
+                result.getRssi(),
+                result.getDevice().getAddress(),
+                record == null ? null : record.getDeviceName(),
+                uuid -> record == null ? null : record.getServiceData(uuid),
+                id -> record == null ? null : record.getManufacturerSpecificData(id));
+    }
+
+    /**
+     * Checks the criteria against the fields of a scan result, cheapest criteria first.
+     *
+     * @param serviceData Returns the service data advertised for a service UUID, or null.
+     * @param manufacturerData Returns the data advertised for a manufacturer ID, or null.
+     */
+    public boolean matches(
+            int rssi,
+            String address,
+            @Nullable String name,
+            Function<ParcelUuid, byte[]> serviceData,
+            IntFunction<byte[]> manufacturerData) {
+        if (minRssi != null && rssi < minRssi) {
+            return false;
+        }
+        if (addresses != null && !addresses.contains(address.toUpperCase(Locale.US))) {
+            return false;
+        }
+        if (namePattern != null && (name == null || !namePattern.matcher(name).find())) {
+            return false;
+        }
+        for (DataPattern<ParcelUuid> pattern : serviceDataPatterns) {
+            if (!pattern.matches(serviceData.apply(pattern.key))) {
+                return false;
+            }
+        }
+        for (DataPattern<Integer> pattern : manufacturerDataPatterns) {
+            if (!pattern.matches(manufacturerData.apply(pattern.key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
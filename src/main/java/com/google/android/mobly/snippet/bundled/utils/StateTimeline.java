@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A thread-safe, bounded record of the transitions of a state machine, e.g. the Bluetooth adapter.
+ *
+ * <p>Transitions are recorded by the receiver of the state change broadcast, and waiters are woken
+ * up as soon as one is recorded. This allows waiting for a state to settle, i.e. for no transition
+ * to happen during a quiet period, without polling the state. When the record is full, the oldest
+ * transition is dropped.
+ */
+public class StateTimeline {
+
+    /** Returned by {@link #waitUntilSettled} if the state did not settle. */
+    public static final long TIMED_OUT = -1;
+
+    // Interval at which the condition is re-checked if no transition is recorded.
+    private static final long FALLBACK_POLL_INTERVAL_MS = 1000;
+
+    /** A change of state, at a time in milliseconds since the epoch. */
+    public static class Transition {
+        private final int previousState;
+        private final int state;
+        private final long timeMs;
+
+        Transition(int previousState, int state, long timeMs) {
+            this.previousState = previousState;
+            this.state = state;
+            this.timeMs = timeMs;
+        }
+
+        public int getPreviousState() {
+            return previousState;
+        }
+
+        public int getState() {
+            return state;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+    }
+
+    private final int capacity;
+    private final ArrayDeque<Transition> transitions = new ArrayDeque<>();
+    // Time of the last recorded transition, 0 if none was recorded.
+    private long lastTransitionTimeMs = 0;
+    private long transitionCount = 0;
+
+    public StateTimeline(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /** Records a transition and wakes up the waiters. */
+    public synchronized void record(int previousState, int state, long timeMs) {
+        if (transitions.size() == capacity) {
+            transitions.removeFirst();
+        }
+        transitions.addLast(new Transition(previousState, state, timeMs));
+        lastTransitionTimeMs = timeMs;
+        transitionCount++;
+        notifyAll();
+    }
+
+    /** Returns the transitions recorded at or after the given time, oldest first. */
+    public synchronized List<Transition> getTransitionsSince(long sinceTimeMs) {
+        List<Transition> result = new ArrayList<>();
+        for (Transition transition : transitions) {
+            if (transition.timeMs >= sinceTimeMs) {
+                result.add(transition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits until no transition has been recorded for the quiet period and the condition holds.
+     *
+     * <p>The condition is checked whenever a transition is recorded and once the quiet period
+     * since the last transition has passed, so the wait ends as soon as the state has settled.
+     * With a quiet period of 0, this waits for the condition only.
+     *
+     * @param settled Returns whether the current state is one the state machine can rest in.
+     * @param quietPeriodMs The time without any transition after which the state is settled.
+     * @param timeoutMs The maximum time to wait for.
+     * @return The number of milliseconds it took for the state to settle, or {@link #TIMED_OUT}.
+     */
+    public long waitUntilSettled(BooleanSupplier settled, long quietPeriodMs, long timeoutMs)
+            throws InterruptedException {
+        long startMs = System.currentTimeMillis();
+        long deadlineMs = startMs + timeoutMs;
+        while (true) {
+            long quietUntilMs;
+            long observedTransitionCount;
+            synchronized (this) {
+                quietUntilMs = lastTransitionTimeMs + quietPeriodMs;
+                observedTransitionCount = transitionCount;
+            }
+            long nowMs = System.currentTimeMillis();
+            // Evaluate the condition outside of the lock so a slow binder call does not block
+            // the thread recording transitions.
+            if (nowMs >= quietUntilMs && settled.getAsBoolean()) {
+                return nowMs - startMs;
+            }
+            if (nowMs >= deadlineMs) {
+                return TIMED_OUT;
+            }
+            long waitMs = nowMs < quietUntilMs ? quietUntilMs - nowMs : FALLBACK_POLL_INTERVAL_MS;
+            synchronized (this) {
+                // Only sleep if no transition was recorded while the condition was evaluated.
+                if (transitionCount == observedTransitionCount) {
+                    wait(Math.max(1, Math.min(waitMs, deadlineMs - nowMs)));
+                }
+            }
+        }
+    }
+}
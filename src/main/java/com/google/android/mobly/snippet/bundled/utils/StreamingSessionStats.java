@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.bundled.utils;
+
+import androidx.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * Running statistics of an audio streaming session, built from periodic samples of its state.
+ *
+ * <p>Once the stream has played, every sample where it is not playing, e.g. because the device
+ * disconnected, is part of a stall. A stall starts at the first sample that is not playing, and
+ * its duration is counted between samples. A codec switch is counted each time the codec of a
+ * sample differs from the last known codec; samples without a codec are ignored for this.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class StreamingSessionStats {
+    private long sampleCount = 0;
+    private long lastSampleTimeMs = 0;
+    private boolean hasPlayed = false;
+    private boolean wasPlaying = false;
+    private boolean wasConnected = false;
+    private long playingTimeMs = 0;
+    private long stallCount = 0;
+    private long stalledTimeMs = 0;
+    private long disconnectCount = 0;
+    private long codecSwitchCount = 0;
+    @Nullable private String lastCodec = null;
+
+    /**
+     * Records one sample of the session state.
+     *
+     * @param timeMs The time the sample was taken at, in milliseconds.
+     * @param connected Whether the device is connected.
+     * @param playing Whether the stream is playing.
+     * @param codec A description of the codec in use, or null if not known.
+     */
+    public void add(long timeMs, boolean connected, boolean playing, @Nullable String codec) {
+        if (sampleCount > 0) {
+            long intervalMs = timeMs - lastSampleTimeMs;
+            if (wasPlaying) {
+                playingTimeMs += intervalMs;
+            } else if (hasPlayed) {
+                stalledTimeMs += intervalMs;
+            }
+            if (wasConnected && !connected) {
+                disconnectCount++;
+            }
+        }
+        if (hasPlayed && wasPlaying && !playing) {
+            stallCount++;
+        }
+        if (codec != null) {
+            if (lastCodec != null && !Objects.equals(lastCodec, codec)) {
+                codecSwitchCount++;
+            }
+            lastCodec = codec;
+        }
+        hasPlayed |= playing;
+        wasPlaying = playing;
+        wasConnected = connected;
+        lastSampleTimeMs = timeMs;
+        sampleCount++;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getPlayingTimeMs() {
+        return playingTimeMs;
+    }
+
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    public long getStalledTimeMs() {
+        return stalledTimeMs;
+    }
+
+    public long getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    public long getCodecSwitchCount() {
+        return codecSwitchCount;
+    }
+
+    @Nullable
+    public String getLastCodec() {
+        return lastCodec;
+    }
+}
@@ -26,18 +26,28 @@ import com.google.android.mobly.snippet.event.SnippetEvent;
 import com.google.android.mobly.snippet.util.Log;
 import com.google.common.primitives.Primitives;
 import com.google.common.reflect.TypeToken;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class Utils {
 
     private static final char[] hexArray = "0123456789abcdef".toCharArray();
 
+    // Resolved methods of invokeByReflection. An empty value means no suitable method exists.
+    private static final ConcurrentHashMap<MethodKey, Optional<MethodHandle>> methodHandleCache =
+            new ConcurrentHashMap<>();
+    private static final AtomicLong methodHandleCacheHits = new AtomicLong();
+    private static final AtomicLong methodHandleCacheMisses = new AtomicLong();
+
     private Utils() {}
 
     /**
@@ -125,6 +135,10 @@ public final class Utils {
      *           "setWifiApEnabled", null /* wifiConfiguration * /, true /* enabled * /);
      * </pre>
      *
+     * <p>Resolved methods are cached as {@link MethodHandle}s keyed by the instance class, the
+     * method name and the argument types, so repeated calls skip the method search. Failed lookups
+     * are cached too.
+     *
      * @param instance Instance of object defining the method to call.
      * @param methodName Name of the method to call. Can be inherited.
      * @param args Variadic array of arguments to supply to the method. Their types will be used to
@@ -142,11 +156,54 @@ public final class Utils {
         if (args == null) {
             args = new Object[] {null};
         }
+        MethodKey key = new MethodKey(instance.getClass(), methodName, args);
+        Optional<MethodHandle> methodHandle = methodHandleCache.get(key);
+        if (methodHandle != null) {
+            methodHandleCacheHits.incrementAndGet();
+        } else {
+            methodHandleCacheMisses.incrementAndGet();
+            methodHandle = resolveMethodHandle(instance.getClass(), methodName, args);
+            methodHandleCache.putIfAbsent(key, methodHandle);
+        }
+        if (!methodHandle.isPresent()) {
+            StringBuilder methodString =
+                    new StringBuilder(instance.getClass().getName())
+                            .append('#')
+                            .append(methodName)
+                            .append('(');
+            for (int i = 0; i < args.length - 1; i++) {
+                methodString.append(args[i].getClass().getSimpleName()).append(", ");
+            }
+            if (args.length > 0) {
+                methodString.append(args[args.length - 1].getClass().getSimpleName());
+            }
+            methodString.append(')');
+            throw new NoSuchMethodException(methodString.toString());
+        }
+        Object[] receiverAndArgs = new Object[args.length + 1];
+        receiverAndArgs[0] = instance;
+        System.arraycopy(args, 0, receiverAndArgs, 1, args.length);
+        // Unlike Method#invoke, MethodHandle#invokeWithArguments throws the exception raised by
+        // the method directly.
+        return methodHandle.get().invokeWithArguments(receiverAndArgs);
+    }
+
+    /** Returns the number of {@link #invokeByReflection} calls served from the method cache. */
+    public static long getMethodHandleCacheHits() {
+        return methodHandleCacheHits.get();
+    }
+
+    /** Returns the number of {@link #invokeByReflection} calls that had to search for a method. */
+    public static long getMethodHandleCacheMisses() {
+        return methodHandleCacheMisses.get();
+    }
+
+    private static Optional<MethodHandle> resolveMethodHandle(
+            Class<?> cls, String methodName, Object[] args) throws IllegalAccessException {
         // Can't use Class#getMethod(Class<?>...) because it expects that the passed in classes
         // exactly match the parameters of the method, and doesn't handle superclasses.
-        Method method = null;
         METHOD_SEARCHER:
-        for (Method candidateMethod : instance.getClass().getMethods()) {
+        for (Method candidateMethod : cls.getMethods()) {
             // getMethods() returns only public methods, so we don't need to worry about checking
             // whether the method is accessible.
             if (!candidateMethod.getName().equals(methodName)) {
@@ -173,32 +230,65 @@ public final class Utils {
                     }
                 }
             }
-            method = candidateMethod;
-            break;
+            // Use fixed arity so an array passed for a varargs parameter is not wrapped again.
+            return Optional.of(MethodHandles.lookup().unreflect(candidateMethod).asFixedArity());
         }
-        if (method == null) {
-            StringBuilder methodString =
-                    new StringBuilder(instance.getClass().getName())
-                            .append('#')
-                            .append(methodName)
-                            .append('(');
-            for (int i = 0; i < args.length - 1; i++) {
-                methodString.append(args[i].getClass().getSimpleName()).append(", ");
+        return Optional.empty();
+    }
+
+    /** Cache key identifying a method by instance class, method name and argument types. */
+    private static final class MethodKey {
+        private final Class<?> cls;
+        private final String methodName;
+        // A null element stands for a null argument.
+        private final Class<?>[] argTypes;
+
+        MethodKey(Class<?> cls, String methodName, Object[] args) {
+            this.cls = cls;
+            this.methodName = methodName;
+            this.argTypes = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argTypes[i] = args[i] == null ? null : args[i].getClass();
             }
-            if (args.length > 0) {
-                methodString.append(args[args.length - 1].getClass().getSimpleName());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
             }
-            methodString.append(')');
-            throw new NoSuchMethodException(methodString.toString());
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey other = (MethodKey) o;
+            return cls.equals(other.cls)
+                    && methodName.equals(other.methodName)
+                    && Arrays.equals(argTypes, other.argTypes);
         }
-        try {
-            Object result = method.invoke(instance, args);
-            return result;
-        } catch (InvocationTargetException e) {
-            throw e.getCause();
+
+        @Override
+        public int hashCode() {
+            return (cls.hashCode() * 31 + methodName.hashCode()) * 31 + Arrays.hashCode(argTypes);
         }
     }
 
+    /**
+     * Returns the rank of a percentile among sorted values, using the nearest-rank method.
+     *
+     * @param percentile A value in (0, 100].
+     * @param count The number of values, at least 1.
+     * @return The 1-based rank of the value at the percentile, between 1 and {@code count}.
+     */
+    public static long getNearestRank(double percentile, long count) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100], got " + percentile);
+        }
+        if (count <= 0) {
+            throw new IllegalArgumentException("Count must be positive, got " + count);
+        }
+        return Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    }
+
     /**
      * Convert a byte array (binary data) to a hexadecimal string (ASCII) representation.
      *
@@ -238,17 +328,7 @@ public final class Utils {
             }
             // Need to drop the UI Automation to allow other snippets to get access
             // to global UI automation.
-            // Using reflection here since the method is not public.
-            try {
-                Class<?> cls = Class.forName("android.app.UiAutomation");
-                Method destroyMethod = cls.getDeclaredMethod("destroy");
-                destroyMethod.invoke(uia);
-            } catch (NoSuchMethodException
-                    | IllegalAccessException
-                    | ClassNotFoundException
-                    | InvocationTargetException e) {
-                throw new RuntimeException("Failed to cleaup Ui Automation", e);
-            }
+            destroyUiAutomation(uia);
         }
     }
 
@@ -263,14 +343,16 @@ public final class Utils {
             uiAutomation.dropShellPermissionIdentity();
             // Need to drop the UI Automation to allow other snippets to get access
             // to global UI automation.
-            // Using reflection here since the method is not public.
-            try {
-                Class<?> cls = Class.forName("android.app.UiAutomation");
-                Method destroyMethod = cls.getDeclaredMethod("destroy");
-                destroyMethod.invoke(uiAutomation);
-            } catch (ReflectiveOperationException e) {
-                throw new IllegalStateException("Failed to cleaup Ui Automation", e);
-            }
+            destroyUiAutomation(uiAutomation);
+        }
+    }
+
+    private static void destroyUiAutomation(UiAutomation uiAutomation) {
+        // Using reflection here since destroy() is public but hidden from the SDK.
+        try {
+            invokeByReflection(uiAutomation, "destroy");
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to cleaup Ui Automation", e);
         }
     }
 }
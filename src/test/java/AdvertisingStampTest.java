@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import com.google.android.mobly.snippet.bundled.utils.AdvertisingStamp;
+import com.google.common.truth.Truth;
+import org.junit.Test;
+
+/** Tests for {@link com.google.android.mobly.snippet.bundled.utils.AdvertisingStamp} */
+public class AdvertisingStampTest {
+
+    @Test
+    public void testEncodeDecode() {
+        byte[] encoded = new AdvertisingStamp(7, 1700000000123L).encode();
+        Truth.assertThat(encoded).hasLength(AdvertisingStamp.LENGTH);
+
+        AdvertisingStamp decoded = AdvertisingStamp.decode(encoded);
+        Truth.assertThat(decoded.getCounter()).isEqualTo(7);
+        Truth.assertThat(decoded.getTimestampMs()).isEqualTo(1700000000123L);
+    }
+
+    @Test
+    public void testDecodeTooShort() {
+        Truth.assertThat(AdvertisingStamp.decode(new byte[AdvertisingStamp.LENGTH - 1])).isNull();
+        Truth.assertThat(AdvertisingStamp.decode(null)).isNull();
+    }
+}
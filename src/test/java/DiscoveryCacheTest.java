@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import com.google.android.mobly.snippet.bundled.utils.DiscoveryCache;
+import com.google.common.truth.Truth;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for {@link com.google.android.mobly.snippet.bundled.utils.DiscoveryCache} */
+public class DiscoveryCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlySeen() {
+        DiscoveryCache<String> cache = new DiscoveryCache<>(2, 1000);
+        cache.put("a", "A", -50, 0);
+        cache.put("b", "B", -60, 1);
+        // Seeing "a" again makes "b" the least recently seen.
+        cache.put("a", "A", -40, 2);
+        cache.put("c", "C", -70, 3);
+
+        Truth.assertThat(cache.get("b", 3)).isNull();
+        Truth.assertThat(values(cache.getSeenSince(0, 3))).containsExactly("A", "C").inOrder();
+        Truth.assertThat(cache.getSeenSince(0, 3).get(0).getRssi()).isEqualTo(-40);
+    }
+
+    @Test
+    public void testExpiryAndSeenSince() {
+        DiscoveryCache<String> cache = new DiscoveryCache<>(10, 1000);
+        cache.put("a", "A", -50, 0);
+        cache.put("b", "B", -60, 500);
+
+        Truth.assertThat(values(cache.getSeenSince(100, 600))).containsExactly("B");
+        Truth.assertThat(cache.get("a", 1000)).isNull();
+        Truth.assertThat(cache.get("b", 1000)).isEqualTo("B");
+        Truth.assertThat(cache.size()).isEqualTo(1);
+    }
+
+    private static List<String> values(List<DiscoveryCache.Entry<String>> entries) {
+        List<String> result = new ArrayList<>();
+        for (DiscoveryCache.Entry<String> entry : entries) {
+            result.add(entry.getValue());
+        }
+        return result;
+    }
+}
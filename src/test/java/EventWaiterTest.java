@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import com.google.android.mobly.snippet.bundled.utils.EventWaiter;
+import com.google.common.truth.Truth;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for {@link com.google.android.mobly.snippet.bundled.utils.EventWaiter} */
+public class EventWaiterTest {
+
+    @Test
+    public void testWaitUntil_AlreadyMet() {
+        EventWaiter waiter = new EventWaiter();
+        Truth.assertThat(waiter.waitUntil(() -> true, 1)).isAtLeast(0L);
+    }
+
+    @Test
+    public void testWaitUntil_WakesUpOnSignal() throws Exception {
+        // Use a fallback interval longer than the timeout so only the signal can wake the waiter.
+        EventWaiter waiter = new EventWaiter(60_000);
+        AtomicBoolean condition = new AtomicBoolean(false);
+        Thread signaler =
+                new Thread(
+                        () -> {
+                            try {
+                                Thread.sleep(50);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            condition.set(true);
+                            waiter.signal();
+                        });
+        signaler.start();
+        long elapsedMs = waiter.waitUntil(condition::get, 10);
+        signaler.join();
+        Truth.assertThat(elapsedMs).isNotEqualTo(EventWaiter.TIMED_OUT);
+        Truth.assertThat(elapsedMs).isLessThan(5_000L);
+    }
+
+    @Test
+    public void testWaitUntil_FallsBackToPolling() {
+        EventWaiter waiter = new EventWaiter(10);
+        long deadline = System.currentTimeMillis() + 50;
+        long elapsedMs = waiter.waitUntil(() -> System.currentTimeMillis() >= deadline, 10);
+        Truth.assertThat(elapsedMs).isNotEqualTo(EventWaiter.TIMED_OUT);
+    }
+
+    @Test
+    public void testWaitUntil_TimedOut() {
+        EventWaiter waiter = new EventWaiter(10);
+        Truth.assertThat(waiter.waitUntil(() -> false, 0)).isEqualTo(EventWaiter.TIMED_OUT);
+    }
+
+    @Test
+    public void testWaitUntil_PredicateThrows() {
+        EventWaiter waiter = new EventWaiter();
+        try {
+            waiter.waitUntil(
+                    () -> {
+                        throw new IOException("Example exception");
+                    },
+                    1);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Truth.assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    public void testWaitUntil_Interrupted() {
+        EventWaiter waiter = new EventWaiter(60_000);
+        Thread.currentThread().interrupt();
+        try {
+            waiter.waitUntil(() -> false, 10);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Truth.assertThat(e).hasCauseThat().isInstanceOf(InterruptedException.class);
+            // Clears the interrupt status so it does not leak into other tests.
+            Truth.assertThat(Thread.interrupted()).isTrue();
+        }
+    }
+}
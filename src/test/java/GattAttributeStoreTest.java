@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import com.google.android.mobly.snippet.bundled.utils.GattAttributeStore;
+import com.google.common.truth.Truth;
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(minSdk = 33)
+public class GattAttributeStoreTest {
+  private static final String ADDRESS = "00:11:22:33:44:55";
+
+  private final BluetoothGattCharacteristic characteristic =
+      new BluetoothGattCharacteristic(UUID.randomUUID(), 0, 0);
+
+  @Test
+  public void testOffsetRead() {
+    GattAttributeStore store = new GattAttributeStore();
+    Truth.assertThat(store.read(characteristic, 0)).isEmpty();
+    store.put(characteristic, new byte[] {1, 2, 3, 4});
+    Truth.assertThat(store.read(characteristic, 1)).isEqualTo(new byte[] {2, 3, 4});
+    Truth.assertThat(store.read(characteristic, 4)).isEmpty();
+    Truth.assertThat(store.read(characteristic, 5)).isNull();
+  }
+
+  @Test
+  public void testShorterWriteReplacesLongerValue() {
+    GattAttributeStore store = new GattAttributeStore();
+    store.put(characteristic, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+    Truth.assertThat(store.write(characteristic, 0, new byte[] {11, 12})).isTrue();
+    Truth.assertThat(store.get(characteristic)).isEqualTo(new byte[] {11, 12});
+
+    Truth.assertThat(store.write(characteristic, 1, new byte[] {13})).isTrue();
+    Truth.assertThat(store.get(characteristic)).isEqualTo(new byte[] {11, 13});
+    Truth.assertThat(store.write(characteristic, 3, new byte[] {14})).isFalse();
+  }
+
+  @Test
+  public void testPreparedWrites() {
+    GattAttributeStore store = new GattAttributeStore();
+    store.put(characteristic, new byte[] {1, 2});
+    store.prepareWrite(ADDRESS, characteristic, 0, new byte[] {5, 6});
+    store.prepareWrite(ADDRESS, characteristic, 2, new byte[] {7, 8});
+    Truth.assertThat(store.get(characteristic)).isEqualTo(new byte[] {1, 2});
+
+    Truth.assertThat(store.executeWrites(ADDRESS, true)).isTrue();
+    Truth.assertThat(store.get(characteristic)).isEqualTo(new byte[] {5, 6, 7, 8});
+
+    store.prepareWrite(ADDRESS, characteristic, 0, new byte[] {9});
+    Truth.assertThat(store.executeWrites(ADDRESS, false)).isTrue();
+    Truth.assertThat(store.get(characteristic)).isEqualTo(new byte[] {5, 6, 7, 8});
+  }
+}
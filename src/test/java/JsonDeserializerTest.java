@@ -14,8 +14,11 @@
  * the License.
  */
 
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
 
 import com.google.android.mobly.snippet.bundled.utils.JsonDeserializer;
 import com.google.common.truth.Truth;
@@ -159,4 +162,59 @@ public class JsonDeserializerTest {
     Truth.assertThat(characteristic.getDescriptors().get(1).getUuid()).isEqualTo(UUID.fromString("eeeeeeee-eeee-eeee-eeee-eeeeeeeeeeee"));
     Truth.assertThat(characteristic.getDescriptors().get(1).getPermissions()).isEqualTo(BluetoothGattDescriptor.PERMISSION_READ);
   }
+
+  @Test
+  public void testAdvertisingSetParameters() throws Throwable {
+    JSONObject json = new JSONObject();
+    json.put("Legacy", false);
+    json.put("Connectable", true);
+    json.put("IncludeTxPower", true);
+    json.put("Interval", AdvertisingSetParameters.INTERVAL_HIGH);
+    json.put("TxPowerLevel", AdvertisingSetParameters.TX_POWER_HIGH);
+    json.put("PrimaryPhy", "PHY_LE_CODED");
+    json.put("SecondaryPhy", "PHY_LE_2M");
+
+    AdvertisingSetParameters parameters = JsonDeserializer.jsonToAdvertisingSetParameters(json);
+    Truth.assertThat(parameters.isLegacy()).isFalse();
+    Truth.assertThat(parameters.isConnectable()).isTrue();
+    Truth.assertThat(parameters.isScannable()).isFalse();
+    Truth.assertThat(parameters.includeTxPower()).isTrue();
+    Truth.assertThat(parameters.getInterval()).isEqualTo(AdvertisingSetParameters.INTERVAL_HIGH);
+    Truth.assertThat(parameters.getTxPowerLevel())
+        .isEqualTo(AdvertisingSetParameters.TX_POWER_HIGH);
+    Truth.assertThat(parameters.getPrimaryPhy()).isEqualTo(BluetoothDevice.PHY_LE_CODED);
+    Truth.assertThat(parameters.getSecondaryPhy()).isEqualTo(BluetoothDevice.PHY_LE_2M);
+  }
+
+  @Test
+  public void testAdvertisingSetParametersMissingKeysKeepDefaults() throws Throwable {
+    AdvertisingSetParameters defaults = new AdvertisingSetParameters.Builder().build();
+
+    AdvertisingSetParameters parameters =
+        JsonDeserializer.jsonToAdvertisingSetParameters(new JSONObject());
+    Truth.assertThat(parameters.isLegacy()).isEqualTo(defaults.isLegacy());
+    Truth.assertThat(parameters.isConnectable()).isEqualTo(defaults.isConnectable());
+    Truth.assertThat(parameters.isAnonymous()).isEqualTo(defaults.isAnonymous());
+    Truth.assertThat(parameters.getInterval()).isEqualTo(defaults.getInterval());
+    Truth.assertThat(parameters.getTxPowerLevel()).isEqualTo(defaults.getTxPowerLevel());
+    Truth.assertThat(parameters.getPrimaryPhy()).isEqualTo(defaults.getPrimaryPhy());
+    Truth.assertThat(parameters.getSecondaryPhy()).isEqualTo(defaults.getSecondaryPhy());
+  }
+
+  @Test
+  public void testPeriodicAdvertisingParameters() throws Throwable {
+    JSONObject json = new JSONObject();
+    json.put("IncludeTxPower", true);
+    json.put("Interval", 80);
+
+    PeriodicAdvertisingParameters parameters =
+        JsonDeserializer.jsonToPeriodicAdvertisingParameters(json);
+    Truth.assertThat(parameters.getIncludeTxPower()).isTrue();
+    Truth.assertThat(parameters.getInterval()).isEqualTo(80);
+
+    PeriodicAdvertisingParameters defaults = new PeriodicAdvertisingParameters.Builder().build();
+    parameters = JsonDeserializer.jsonToPeriodicAdvertisingParameters(new JSONObject());
+    Truth.assertThat(parameters.getIncludeTxPower()).isEqualTo(defaults.getIncludeTxPower());
+    Truth.assertThat(parameters.getInterval()).isEqualTo(defaults.getInterval());
+  }
 }
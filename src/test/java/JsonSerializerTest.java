@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import android.net.DhcpInfo;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
+
+import com.google.android.mobly.snippet.bundled.utils.JsonSerializer;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truth.Truth;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(minSdk = 33)
+public class JsonSerializerTest {
+  // The fields of WifiConfiguration that are public in the SDK. Gson also dumps hidden and
+  // private fields, which are not part of the serialized output.
+  private static final ImmutableSet<String> WIFI_CONFIGURATION_PUBLIC_FIELDS =
+      ImmutableSet.of(
+          "networkId",
+          "status",
+          "SSID",
+          "BSSID",
+          "FQDN",
+          "providerFriendlyName",
+          "isHomeProviderNetwork",
+          "roamingConsortiumIds",
+          "preSharedKey",
+          "wepKeys",
+          "wepTxKeyIndex",
+          "priority",
+          "hiddenSSID",
+          "allowedKeyManagement",
+          "allowedProtocols",
+          "allowedAuthAlgorithms",
+          "allowedPairwiseCiphers",
+          "allowedGroupCiphers",
+          "allowedGroupManagementCiphers",
+          "allowedSuiteBCiphers",
+          "enterpriseConfig");
+
+  // The keys Gson derived from private fields of WifiInfo that have a public getter.
+  private static final ImmutableSet<String> WIFI_INFO_GETTER_KEYS =
+      ImmutableSet.of(
+          "mSupplicantState",
+          "mBSSID",
+          "mNetworkId",
+          "mRssi",
+          "mLinkSpeed",
+          "mTxLinkSpeed",
+          "mRxLinkSpeed",
+          "mFrequency",
+          "mMacAddress",
+          "mIpAddress",
+          "mHiddenSSID",
+          "mIsHiddenSsid",
+          "mFqdn",
+          "mProviderFriendlyName",
+          "mWifiStandard",
+          "mMaxSupportedTxLinkSpeed",
+          "mMaxSupportedRxLinkSpeed",
+          "mSecurityType",
+          "mSubscriptionId");
+
+  private static final Gson GSON =
+      new GsonBuilder()
+          .serializeNulls()
+          .excludeFieldsWithModifiers(Modifier.STATIC)
+          .enableComplexMapKeySerialization()
+          .disableInnerClassSerialization()
+          .create();
+
+  private static Set<String> keySet(JSONObject json) {
+    Set<String> keys = new HashSet<>();
+    Iterator<String> iterator = json.keys();
+    while (iterator.hasNext()) {
+      keys.add(iterator.next());
+    }
+    return keys;
+  }
+
+  @Test
+  public void testDhcpInfo() throws Throwable {
+    DhcpInfo dhcpInfo = new DhcpInfo();
+    // 192.168.1.2 in network byte order.
+    dhcpInfo.ipAddress = 0x0201a8c0;
+    dhcpInfo.leaseDuration = 3600;
+
+    JSONObject json = new JsonSerializer().toJson(dhcpInfo);
+    Truth.assertThat(json.getInt("ipAddress")).isEqualTo(0x0201a8c0);
+    Truth.assertThat(json.getInt("leaseDuration")).isEqualTo(3600);
+    Truth.assertThat(json.getString("IpAddress")).isEqualTo("/192.168.1.2");
+    Truth.assertThat(json.has("gateway")).isTrue();
+    Truth.assertThat(json.has("netmask")).isTrue();
+    Truth.assertThat(json.has("dns1")).isTrue();
+    Truth.assertThat(json.has("dns2")).isTrue();
+    Truth.assertThat(json.has("serverAddress")).isTrue();
+  }
+
+  @Test
+  public void testWifiConfiguration() throws Throwable {
+    WifiConfiguration config = new WifiConfiguration();
+    config.SSID = "\"myWifi\"";
+    config.networkId = 3;
+    config.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_PSK);
+
+    JSONObject json = new JsonSerializer().toJson(config);
+    Truth.assertThat(json.getString("SSID")).isEqualTo("myWifi");
+    Truth.assertThat(json.getInt("networkId")).isEqualTo(3);
+    Truth.assertThat(json.getString("Status"))
+        .isEqualTo(WifiConfiguration.Status.strings[config.status]);
+    Truth.assertThat(json.isNull("BSSID")).isTrue();
+    Truth.assertThat(
+            json.getJSONArray("allowedKeyManagement").getInt(WifiConfiguration.KeyMgmt.WPA_PSK))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testWifiConfigurationKeepsGsonKeys() throws Throwable {
+    WifiConfiguration config = new WifiConfiguration();
+    config.SSID = "\"myWifi\"";
+
+    Set<String> expectedKeys = keySet(new JSONObject(GSON.toJson(config)));
+    expectedKeys.retainAll(WIFI_CONFIGURATION_PUBLIC_FIELDS);
+    expectedKeys.add("Status");
+    Truth.assertThat(expectedKeys).containsAtLeastElementsIn(WIFI_CONFIGURATION_PUBLIC_FIELDS);
+    Truth.assertThat(keySet(new JsonSerializer().toJson(config))).isEqualTo(expectedKeys);
+  }
+
+  @Test
+  public void testWifiInfoKeepsGsonKeys() throws Throwable {
+    WifiInfo wifiInfo =
+        new WifiInfo.Builder()
+            .setBssid("00:11:22:33:44:55")
+            .setNetworkId(3)
+            .setRssi(-50)
+            .build();
+
+    Set<String> expectedKeys = keySet(new JSONObject(GSON.toJson(wifiInfo)));
+    expectedKeys.retainAll(WIFI_INFO_GETTER_KEYS);
+    Truth.assertThat(expectedKeys).contains("mIpAddress");
+    Truth.assertThat(keySet(new JsonSerializer().toJson(wifiInfo)))
+        .containsAtLeastElementsIn(expectedKeys);
+  }
+}
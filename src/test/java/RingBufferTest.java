@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import com.google.android.mobly.snippet.bundled.utils.RingBuffer;
+import com.google.common.truth.Truth;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for {@link com.google.android.mobly.snippet.bundled.utils.RingBuffer} */
+public class RingBufferTest {
+
+    @Test
+    public void testDrain_OldestFirst() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        Truth.assertThat(buffer.add(1)).isEqualTo(1);
+        Truth.assertThat(buffer.add(2)).isEqualTo(2);
+        Truth.assertThat(buffer.add(3)).isEqualTo(3);
+        Truth.assertThat(buffer.drain(2)).containsExactly(1, 2).inOrder();
+        Truth.assertThat(buffer.drain(2)).containsExactly(3);
+        Truth.assertThat(buffer.drain(2)).isEmpty();
+        Truth.assertThat(buffer.takeDroppedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAdd_EvictsOldestWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(i);
+        }
+        Truth.assertThat(buffer.size()).isEqualTo(3);
+        Truth.assertThat(buffer.takeDroppedCount()).isEqualTo(2);
+        Truth.assertThat(buffer.takeDroppedCount()).isEqualTo(0);
+        Truth.assertThat(buffer.drain(10)).containsExactly(3, 4, 5).inOrder();
+    }
+
+    @Test
+    public void testAdd_WrapsAround() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.drain(1);
+        buffer.add(3);
+        buffer.add(4);
+        Truth.assertThat(buffer.takeDroppedCount()).isEqualTo(0);
+        Truth.assertThat(buffer.drain(3)).containsExactly(2, 3, 4).inOrder();
+    }
+
+    @Test
+    public void testDrain_NegativeMaxElementsThrows() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        buffer.add(1);
+        Assert.assertThrows(IllegalArgumentException.class, () -> buffer.drain(-1));
+        Truth.assertThat(buffer.size()).isEqualTo(1);
+        Truth.assertThat(buffer.drain(3)).containsExactly(1);
+    }
+}
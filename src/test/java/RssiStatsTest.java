@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import com.google.android.mobly.snippet.bundled.utils.RssiStats;
+import com.google.common.truth.Truth;
+import org.junit.Test;
+
+/** Tests for {@link com.google.android.mobly.snippet.bundled.utils.RssiStats} */
+public class RssiStatsTest {
+
+    @Test
+    public void testStats() {
+        RssiStats stats = new RssiStats();
+        for (int i = 1; i <= 10; i++) {
+            stats.add(-50 - i, 1000 + i);
+        }
+        Truth.assertThat(stats.getCount()).isEqualTo(10);
+        Truth.assertThat(stats.getFirstSeenTimeMs()).isEqualTo(1001);
+        Truth.assertThat(stats.getLastSeenTimeMs()).isEqualTo(1010);
+        Truth.assertThat(stats.getMin()).isEqualTo(-60);
+        Truth.assertThat(stats.getMax()).isEqualTo(-51);
+        Truth.assertThat(stats.getMean()).isWithin(1e-9).of(-55.5);
+        Truth.assertThat(stats.getPercentile(50)).isEqualTo(-56);
+        Truth.assertThat(stats.getPercentile(90)).isEqualTo(-52);
+        Truth.assertThat(stats.getPercentile(100)).isEqualTo(-51);
+    }
+
+    @Test
+    public void testAdd_ClampsOutOfRangeValues() {
+        RssiStats stats = new RssiStats();
+        stats.add(-200, 0);
+        stats.add(127, 0);
+        Truth.assertThat(stats.getMin()).isEqualTo(RssiStats.MIN_RSSI);
+        Truth.assertThat(stats.getMax()).isEqualTo(RssiStats.MAX_RSSI);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.mobly.snippet.bundled.utils.ScanResultDiffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/** Tests for {@link ScanResultDiffer}. */
+public class ScanResultDifferTest {
+
+    private static Map<String, Integer> scan(Object... keysAndRssis) {
+        Map<String, Integer> results = new HashMap<>();
+        for (int i = 0; i < keysAndRssis.length; i += 2) {
+            results.put((String) keysAndRssis[i], (Integer) keysAndRssis[i + 1]);
+        }
+        return results;
+    }
+
+    @Test
+    public void update_reportsAddedRemovedAndChanged() {
+        ScanResultDiffer<Integer> differ = new ScanResultDiffer<>(5, rssi -> rssi);
+        ScanResultDiffer.Diff<Integer> first = differ.update(scan("a", -50, "b", -60));
+        assertThat(first.getAdded()).containsExactly(-50, -60);
+
+        ScanResultDiffer.Diff<Integer> second = differ.update(scan("a", -53, "c", -70));
+        assertThat(second.getAdded()).containsExactly(-70);
+        assertThat(second.getRemoved()).containsExactly("b");
+        assertThat(second.getChanged()).isEmpty();
+
+        ScanResultDiffer.Diff<Integer> unchanged = differ.update(scan("a", -53, "c", -70));
+        assertThat(unchanged.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void update_reportsDriftOnceItReachesThreshold() {
+        ScanResultDiffer<Integer> differ = new ScanResultDiffer<>(5, rssi -> rssi);
+        differ.update(scan("a", -50));
+
+        assertThat(differ.update(scan("a", -53)).isEmpty()).isTrue();
+        assertThat(differ.update(scan("a", -55)).getChanged()).containsExactly(-55);
+        // The next change is measured from the reported RSSI, -55.
+        assertThat(differ.update(scan("a", -58)).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void clear_reportsAllResultsAsAddedAgain() {
+        ScanResultDiffer<Integer> differ = new ScanResultDiffer<>(5, rssi -> rssi);
+        differ.update(scan("a", -50));
+        differ.clear();
+
+        assertThat(differ.update(scan("a", -50)).getAdded()).containsExactly(-50);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import com.google.android.mobly.snippet.bundled.utils.ScanResultMatcher;
+import com.google.common.truth.Truth;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(minSdk = 33)
+public class ScanResultMatcherTest {
+  private static final String ADDRESS = "00:11:22:33:44:55";
+
+  @Test
+  public void testRssiNameAndAddress() throws Throwable {
+    ScanResultMatcher matcher =
+        ScanResultMatcher.fromJson(
+            new JSONObject(
+                "{'MinRssi': -70, 'NameRegex': '^Pixel', 'Addresses': ['00:11:22:33:44:55']}"));
+    Truth.assertThat(matcher.matches(-60, ADDRESS, "Pixel 9", uuid -> null, id -> null)).isTrue();
+    Truth.assertThat(matcher.matches(-80, ADDRESS, "Pixel 9", uuid -> null, id -> null))
+        .isFalse();
+    Truth.assertThat(matcher.matches(-60, ADDRESS, "My Pixel", uuid -> null, id -> null))
+        .isFalse();
+    Truth.assertThat(matcher.matches(-60, ADDRESS, null, uuid -> null, id -> null)).isFalse();
+    Truth.assertThat(
+            matcher.matches(-60, "00:11:22:33:44:66", "Pixel 9", uuid -> null, id -> null))
+        .isFalse();
+  }
+
+  @Test
+  public void testMaskedManufacturerData() throws Throwable {
+    // Data 0x0A 0x10, mask 0xFF 0xF0: first byte must be 0x0A, high nibble of second 0x1.
+    ScanResultMatcher matcher =
+        ScanResultMatcher.fromJson(
+            new JSONObject(
+                "{'ManufacturerData': [{'ManufacturerId': 224, 'Data': 'ChA=', 'Mask': '//A='}]}"));
+    Truth.assertThat(
+            matcher.matches(
+                -60,
+                ADDRESS,
+                null,
+                uuid -> null,
+                id -> id == 224 ? new byte[] {10, 0x1F, 7} : null))
+        .isTrue();
+    Truth.assertThat(
+            matcher.matches(
+                -60, ADDRESS, null, uuid -> null, id -> id == 224 ? new byte[] {10, 0x2F} : null))
+        .isFalse();
+    Truth.assertThat(
+            matcher.matches(
+                -60, ADDRESS, null, uuid -> null, id -> id == 224 ? new byte[] {10} : null))
+        .isFalse();
+    Truth.assertThat(matcher.matches(-60, ADDRESS, null, uuid -> null, id -> null)).isFalse();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.mobly.snippet.bundled.utils.StateTimeline;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for {@link StateTimeline}. */
+public class StateTimelineTest {
+
+    @Test
+    public void record_dropsOldestTransitionsWhenFull() {
+        StateTimeline timeline = new StateTimeline(2);
+        timeline.record(10, 11, 1000);
+        timeline.record(11, 12, 2000);
+        timeline.record(12, 13, 3000);
+
+        List<StateTimeline.Transition> transitions = timeline.getTransitionsSince(0);
+        assertThat(transitions).hasSize(2);
+        assertThat(transitions.get(0).getPreviousState()).isEqualTo(11);
+        assertThat(transitions.get(1).getState()).isEqualTo(13);
+        assertThat(timeline.getTransitionsSince(2500)).hasSize(1);
+    }
+
+    @Test
+    public void waitUntilSettled_returnsImmediatelyWithoutRecentTransition() throws Exception {
+        StateTimeline timeline = new StateTimeline(10);
+
+        assertThat(timeline.waitUntilSettled(() -> true, 60_000, 1000)).isLessThan(1000L);
+        assertThat(timeline.waitUntilSettled(() -> false, 0, 100))
+                .isEqualTo(StateTimeline.TIMED_OUT);
+    }
+
+    @Test
+    public void waitUntilSettled_waitsForQuietPeriodAfterTransition() throws Exception {
+        StateTimeline timeline = new StateTimeline(10);
+        timeline.record(10, 11, System.currentTimeMillis());
+
+        long elapsedMs = timeline.waitUntilSettled(() -> true, 300, 5000);
+
+        assertThat(elapsedMs).isAtLeast(250L);
+        assertThat(elapsedMs).isLessThan(5000L);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.mobly.snippet.bundled.utils.StreamingSessionStats;
+import org.junit.Test;
+
+/** Tests for {@link StreamingSessionStats}. */
+public class StreamingSessionStatsTest {
+
+    @Test
+    public void add_countsStallsAfterPlaybackStarted() {
+        StreamingSessionStats stats = new StreamingSessionStats();
+        // Not playing before the stream starts is not a stall.
+        stats.add(0, true, false, null);
+        stats.add(100, true, true, null);
+        stats.add(200, true, true, null);
+        stats.add(300, true, false, null);
+        stats.add(400, false, false, null);
+        stats.add(500, true, true, null);
+
+        assertThat(stats.getSampleCount()).isEqualTo(6);
+        assertThat(stats.getStallCount()).isEqualTo(1);
+        assertThat(stats.getStalledTimeMs()).isEqualTo(200);
+        assertThat(stats.getPlayingTimeMs()).isEqualTo(200);
+        assertThat(stats.getDisconnectCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void add_countsCodecSwitchesIgnoringUnknownCodec() {
+        StreamingSessionStats stats = new StreamingSessionStats();
+        stats.add(0, true, true, "SBC");
+        stats.add(100, true, true, null);
+        stats.add(200, true, true, "SBC");
+        stats.add(300, true, true, "AAC");
+        stats.add(400, true, true, "SBC");
+
+        assertThat(stats.getCodecSwitchCount()).isEqualTo(2);
+        assertThat(stats.getLastCodec()).isEqualTo("SBC");
+    }
+}
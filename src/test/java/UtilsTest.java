@@ -117,4 +117,51 @@ public class UtilsTest {
             Truth.assertThat(e.getMessage()).isEqualTo("Example exception");
         }
     }
+
+    @Test
+    public void testInvokeByReflection_CachesResolvedMethod() throws Throwable {
+        ReflectionTest_HostClass hostClass = new ReflectionTest_HostClass();
+        invokeByReflection(hostClass, "multiArgCall", "a", "b", true /* returnArg1 */);
+        long hits = Utils.getMethodHandleCacheHits();
+        long misses = Utils.getMethodHandleCacheMisses();
+        Object ret = invokeByReflection(hostClass, "multiArgCall", "c", "d", false);
+        Truth.assertThat(ret).isEqualTo("d");
+        Truth.assertThat(Utils.getMethodHandleCacheHits()).isEqualTo(hits + 1);
+        Truth.assertThat(Utils.getMethodHandleCacheMisses()).isEqualTo(misses);
+    }
+
+    @Test
+    public void testInvokeByReflection_CachesNoMatch() throws Throwable {
+        ReflectionTest_HostClass hostClass = new ReflectionTest_HostClass();
+        for (int i = 0; i < 2; i++) {
+            long misses = Utils.getMethodHandleCacheMisses();
+            try {
+                invokeByReflection(hostClass, "returnSame", "notAList");
+                Assert.fail();
+            } catch (NoSuchMethodException e) {
+                Truth.assertThat(e.getMessage())
+                        .contains("UtilsTest$ReflectionTest_HostClass#returnSame(String)");
+            }
+            // Only the first lookup searches for the method, the failure is cached afterwards.
+            long expectedMisses = i == 0 ? misses + 1 : misses;
+            Truth.assertThat(Utils.getMethodHandleCacheMisses()).isEqualTo(expectedMisses);
+        }
+    }
+
+    @Test
+    public void testGetNearestRank() {
+        Truth.assertThat(Utils.getNearestRank(50, 10)).isEqualTo(5);
+        Truth.assertThat(Utils.getNearestRank(90, 10)).isEqualTo(9);
+        Truth.assertThat(Utils.getNearestRank(91, 10)).isEqualTo(10);
+        Truth.assertThat(Utils.getNearestRank(100, 10)).isEqualTo(10);
+        Truth.assertThat(Utils.getNearestRank(1, 10)).isEqualTo(1);
+        Truth.assertThat(Utils.getNearestRank(50, 1)).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetNearestRank_InvalidArguments() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> Utils.getNearestRank(0, 10));
+        Assert.assertThrows(IllegalArgumentException.class, () -> Utils.getNearestRank(101, 10));
+        Assert.assertThrows(IllegalArgumentException.class, () -> Utils.getNearestRank(50, 0));
+    }
 }